@@ -0,0 +1,83 @@
+package com.adanac.framework.zookeeper.benchmark;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adanac.framework.zookeeper.intf.Supplier;
+import com.adanac.framework.zookeeper.util.BackoffHelper;
+
+/**
+ * Overhead {@link BackoffHelper} adds around a task that succeeds at once, the common case of
+ * every refresh; {@code direct} calls the task without it as the baseline.
+ * @author adanac
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackoffHelperBenchmark {
+
+	private ScheduledExecutorService scheduler;
+	private BackoffHelper helper;
+	private Supplier<Boolean, RuntimeException> task;
+	private Executor executor;
+	private long calls = 0;
+
+	@Setup
+	public void setUp() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		helper = new BackoffHelper(scheduler);
+		task = new Supplier<Boolean, RuntimeException>() {
+			@Override
+			public Boolean get() {
+				calls++;
+				return Boolean.TRUE;
+			}
+		};
+		executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Benchmark
+	public Boolean direct() {
+		return task.get();
+	}
+
+	@Benchmark
+	public long doUntilSuccess() throws InterruptedException {
+		helper.doUntilSuccess(task);
+		return calls;
+	}
+
+	@Benchmark
+	public long doUntilSuccessAsync() {
+		helper.doUntilSuccessAsync(task, executor, null);
+		return calls;
+	}
+}
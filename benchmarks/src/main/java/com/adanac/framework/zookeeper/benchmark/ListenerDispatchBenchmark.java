@@ -0,0 +1,67 @@
+package com.adanac.framework.zookeeper.benchmark;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.adanac.framework.zookeeper.DataListener;
+import com.adanac.framework.zookeeper.ListenerDispatcher;
+
+/**
+ * Overhead of handing a data change to a listener through a {@link ListenerDispatcher} channel.
+ * The listener runs on the dispatching thread, so only the channel bookkeeping is measured.
+ * @author adanac
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerDispatchBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean conflate;
+
+	private ListenerDispatcher.Channel<Integer> channel;
+	private DataListener<Integer> listener;
+	private Blackhole blackhole;
+	private int value = 0;
+
+	@Setup
+	public void setUp(Blackhole blackhole) {
+		this.blackhole = blackhole;
+		ListenerDispatcher dispatcher = new ListenerDispatcher(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		channel = dispatcher.newChannel(conflate);
+		listener = new DataListener<Integer>() {
+			@Override
+			public void dataChanged(Integer oldData, Integer newData) {
+				ListenerDispatchBenchmark.this.blackhole.consume(newData);
+			}
+		};
+	}
+
+	@Benchmark
+	public void dispatch() {
+		Integer oldData = value;
+		channel.dispatch(listener, oldData, ++value);
+	}
+}
@@ -0,0 +1,38 @@
+package com.adanac.framework.zookeeper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * Cost of {@link ZooKeeperUtils#normalizePath(String)} on already normal and on messy paths.
+ * @author adanac
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizePathBenchmark {
+
+	@Param({ "/config/app/service/node", "//config//app/service///node/" })
+	public String path;
+
+	@Benchmark
+	public String normalizePath() {
+		return ZooKeeperUtils.normalizePath(path);
+	}
+}
@@ -0,0 +1,61 @@
+package com.adanac.framework.zookeeper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adanac.framework.zookeeper.ZooKeeperClient;
+
+/**
+ * Contended {@link ZooKeeperClient#get()} throughput once the handle exists. {@code lockedGet}
+ * reproduces the former fully synchronized get() as the baseline for {@code get}.
+ * @author adanac
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ZooKeeperClientGetBenchmark {
+
+	private ZooKeeperClient client;
+
+	@Setup
+	public void setUp() throws Exception {
+		// the handle is created without waiting for a connection, no server is needed
+		client = new ZooKeeperClient("127.0.0.1:2181");
+		client.get();
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.destroy();
+	}
+
+	@Benchmark
+	public ZooKeeper get() throws Exception {
+		return client.get();
+	}
+
+	@Benchmark
+	public ZooKeeper lockedGet() throws Exception {
+		synchronized (client) {
+			return client.get();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.adanac.framework.zookeeper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ZooDefs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adanac.framework.zookeeper.NodeDeserializers;
+import com.adanac.framework.zookeeper.ZooKeeperClient;
+import com.adanac.framework.zookeeper.ZooKeeperNode;
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * Contended {@link ZooKeeperNode#getData()} throughput of a node synced from an in-process server.
+ * @author adanac
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ZooKeeperNodeReadBenchmark {
+	private static final String PATH = "/benchmark/read";
+
+	private EmbeddedZooKeeperServer server;
+	private ZooKeeperClient client;
+	private ZooKeeperNode<String> node;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new EmbeddedZooKeeperServer();
+		client = new ZooKeeperClient(server.getConnectString());
+		// wait for the session before the first request
+		client.get(10, TimeUnit.SECONDS);
+		ZooKeeperUtils.ensurePath(client, ZooDefs.Ids.OPEN_ACL_UNSAFE, PATH);
+		client.get().setData(PATH, "value".getBytes("UTF-8"), ZooKeeperUtils.ANY_VERSION);
+		node = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		node.sync(true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		node.release();
+		client.destroy();
+		server.shutdown();
+	}
+
+	@Benchmark
+	public String getData() {
+		return node.getData();
+	}
+}
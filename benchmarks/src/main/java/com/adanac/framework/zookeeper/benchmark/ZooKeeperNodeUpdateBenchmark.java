@@ -0,0 +1,91 @@
+package com.adanac.framework.zookeeper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.zookeeper.ZooDefs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adanac.framework.zookeeper.DataListener;
+import com.adanac.framework.zookeeper.NodeDeserializers;
+import com.adanac.framework.zookeeper.ZooKeeperClient;
+import com.adanac.framework.zookeeper.ZooKeeperNode;
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * Latency from writing a node to its listener seeing the new value: watch event, refresh,
+ * deserialization, {@code updateData} and listener dispatch against an in-process server.
+ * @author adanac
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZooKeeperNodeUpdateBenchmark {
+	private static final String PATH = "/benchmark/update";
+
+	@Param({ "false", "true" })
+	public boolean asyncRefresh;
+
+	private EmbeddedZooKeeperServer server;
+	private ZooKeeperClient client;
+	private ZooKeeperNode<Long> node;
+	private volatile Long seen;
+	private volatile Thread waiter;
+	private long version = 0;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new EmbeddedZooKeeperServer();
+		client = new ZooKeeperClient(server.getConnectString());
+		// wait for the session before the first request
+		client.get(10, TimeUnit.SECONDS);
+		ZooKeeperUtils.ensurePath(client, ZooDefs.Ids.OPEN_ACL_UNSAFE, PATH);
+		client.get().setData(PATH, "0".getBytes("UTF-8"), ZooKeeperUtils.ANY_VERSION);
+		node = ZooKeeperNode.create(client, PATH, NodeDeserializers.longValue());
+		node.setAsyncRefresh(asyncRefresh);
+		node.sync(true);
+		node.addDataListener(new DataListener<Long>() {
+			@Override
+			public void dataChanged(Long oldData, Long newData) {
+				seen = newData;
+				Thread thread = waiter;
+				if (thread != null) {
+					LockSupport.unpark(thread);
+				}
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		node.release();
+		client.destroy();
+		server.shutdown();
+	}
+
+	@Benchmark
+	public Long setDataToListener() throws Exception {
+		Long expected = ++version;
+		waiter = Thread.currentThread();
+		client.get().setData(PATH, expected.toString().getBytes("UTF-8"), ZooKeeperUtils.ANY_VERSION);
+		while (!expected.equals(seen)) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		return seen;
+	}
+}
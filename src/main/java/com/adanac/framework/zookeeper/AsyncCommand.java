@@ -0,0 +1,17 @@
+package com.adanac.framework.zookeeper;
+
+/**
+ * A {@link Command} that can also perform its unit of work without blocking the calling thread.
+ *
+ * @param <E> The type of exception that the command throws.
+ */
+public interface AsyncCommand<E extends RuntimeException> extends Command<E> {
+
+	/**
+	 * Starts the unit of work and returns immediately.
+	 *
+	 * @param onComplete must be run exactly once when the work is finished, whether or not it
+	 *                   succeeded
+	 */
+	void executeAsync(Runnable onComplete);
+}
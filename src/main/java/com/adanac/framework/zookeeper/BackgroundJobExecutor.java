@@ -0,0 +1,447 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * Runs background jobs on a fixed set of worker threads (shards). Jobs submitted with the same key
+ * always land on the same shard and therefore run in submission order within their priority, while
+ * jobs for different keys are spread across shards so that one slow job does not stall all the
+ * others.
+ * <p>
+ * Each shard has two lanes: {@link Priority#HIGH} jobs, such as session recovery, always run before
+ * {@link Priority#NORMAL} ones. The normal lane may be bounded with {@link #setCapacity}, the
+ * {@link OverflowPolicy} then decides what happens to jobs submitted to a full lane. The high lane
+ * is never bounded.
+ * <p>
+ * The bound applies to every submitter, but only application threads wait for room. The shard
+ * threads themselves, the zookeeper event threads and the retry scheduler (see
+ * {@link #neverBlockCurrentThread()}) must never wait, and neither do interrupted submitters. A job
+ * they submit to a full lane is coalesced with an equal queued job whatever the policy, or replaces
+ * it under {@link OverflowPolicy#DROP_OLDEST_PER_PATH}. Jobs with no equal job queued, such as the
+ * result of a read already in flight, are queued over capacity and counted by
+ * {@link #getOverCapacityJobs()}. The client queues one equal refresh job per node, so a watch
+ * storm coalesces, and results are bounded by the reads in flight rather than by the rate of events.
+ * @author adanac
+ * @version 1.0
+ */
+public class BackgroundJobExecutor {
+	private static Logger logger = LoggerFactory.getLogger(BackgroundJobExecutor.class);
+
+	/**
+	 * Order in which queued jobs of a shard run.
+	 */
+	public enum Priority {
+		/**
+		 * Runs before every queued normal job.
+		 */
+		HIGH,
+		/**
+		 * Bulk work such as refreshes.
+		 */
+		NORMAL
+	}
+
+	/**
+	 * What happens to a job submitted while the normal lane of its shard is full. Jobs are the same
+	 * work when they are equal and have the same key; the client reuses one job per node for its
+	 * refreshes, so these coalesce, while one-off jobs such as applying a read result never do.
+	 * Submitters that must never wait don't wait under any policy, see the class documentation.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The submitter waits until the lane has room.
+		 */
+		BLOCK,
+		/**
+		 * A job equal to one already queued with the same key is dropped, as the queued job does
+		 * the same work; other jobs wait as with {@link #BLOCK}.
+		 */
+		COALESCE,
+		/**
+		 * The oldest queued job of the same key equal to the new job is dropped and the new job is
+		 * queued at the tail; other jobs wait as with {@link #BLOCK}.
+		 */
+		DROP_OLDEST_PER_PATH
+	}
+
+	// the shard run by the current thread, if any
+	private static final ThreadLocal<Shard> currentShard = new ThreadLocal<Shard>();
+	// set on threads whose submissions overflow a full lane rather than wait
+	private static final ThreadLocal<Boolean> neverBlock = new ThreadLocal<Boolean>();
+
+	private final Shard[] shards;
+	private volatile boolean destroyed = false;
+	private volatile int capacity = Integer.MAX_VALUE;
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong overCapacity = new AtomicLong();
+
+	/**
+	 * @param name        prefix of the worker thread names
+	 * @param shardCount  number of worker threads
+	 */
+	public BackgroundJobExecutor(String name, int shardCount) {
+		if (name == null || shardCount <= 0)
+			throw new IllegalArgumentException();
+		shards = new Shard[shardCount];
+		ThreadFactory threadFactory = ThreadSupport.threadFactory(name);
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard();
+			shards[i].thread = threadFactory.newThread(shards[i]);
+		}
+		for (Shard shard : shards) {
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * Makes the jobs submitted by the current thread overflow a full lane rather than wait for room,
+	 * for threads that everything else depends on, such as the zookeeper event thread.
+	 */
+	public static void neverBlockCurrentThread() {
+		neverBlock.set(Boolean.TRUE);
+	}
+
+	/**
+	 * Submits a job without ordering key; such jobs all share one shard and keep their relative
+	 * order.
+	 */
+	public void submit(Runnable job) {
+		submit(null, job);
+	}
+
+	/**
+	 * Submits a normal job that must run after every job previously submitted with the same
+	 * {@code key} and priority.
+	 *
+	 * @param key ordering key, usually a zookeeper path
+	 * @param job the job to run
+	 */
+	public void submit(String key, Runnable job) {
+		submit(key, job, Priority.NORMAL);
+	}
+
+	/**
+	 * Submits a job that must run after every job previously submitted with the same {@code key}
+	 * and priority.
+	 *
+	 * @param key      ordering key, usually a zookeeper path
+	 * @param job      the job to run
+	 * @param priority lane of the job
+	 */
+	public void submit(String key, Runnable job, Priority priority) {
+		if (job == null || priority == null)
+			throw new IllegalArgumentException();
+		if (destroyed) {
+			logger.warn("Executor has been destroyed, will ignore job " + job);
+			return;
+		}
+		shards[shardOf(key)].offer(new TimedJob(key, job), priority);
+	}
+
+	/**
+	 * Bounds the normal lane of every shard.
+	 *
+	 * @param capacity       maximum number of queued normal jobs per shard
+	 * @param overflowPolicy what to do with jobs submitted to a full lane
+	 */
+	public void setCapacity(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity <= 0 || overflowPolicy == null)
+			throw new IllegalArgumentException();
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		for (Shard shard : shards) {
+			shard.capacityChanged();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return number of jobs dropped because an equal job was queued in a full lane, by
+	 *         {@link OverflowPolicy#COALESCE} or for a submitter that must not wait
+	 */
+	public long getCoalescedJobs() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of queued jobs dropped by {@link OverflowPolicy#DROP_OLDEST_PER_PATH}
+	 */
+	public long getDroppedJobs() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of jobs queued beyond the capacity of a full lane because their submitter must
+	 *         not wait and no equal job was queued
+	 */
+	public long getOverCapacityJobs() {
+		return overCapacity.get();
+	}
+
+	int shardOf(String key) {
+		return ZooKeeperUtils.indexFor(key, shards.length);
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return number of jobs waiting in all shards
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Shard shard : shards) {
+			depth += shard.size();
+		}
+		return depth;
+	}
+
+	public int getQueueDepth(int shard) {
+		return shards[shard].size();
+	}
+
+	public long getCompletedJobs(int shard) {
+		return shards[shard].completed.get();
+	}
+
+	/**
+	 * @return average time in microseconds the completed jobs of the shard waited in the queue
+	 */
+	public long getAverageWaitMicros(int shard) {
+		Shard s = shards[shard];
+		long completed = s.completed.get();
+		return completed == 0 ? 0 : s.totalWaitNanos.get() / completed / 1000;
+	}
+
+	/**
+	 * @return average time in microseconds the completed jobs of the shard spent running
+	 */
+	public long getAverageExecutionMicros(int shard) {
+		Shard s = shards[shard];
+		long completed = s.completed.get();
+		return completed == 0 ? 0 : s.totalExecutionNanos.get() / completed / 1000;
+	}
+
+	/**
+	 * @return longest time in microseconds a single job of the shard spent running
+	 */
+	public long getMaxExecutionMicros(int shard) {
+		return shards[shard].maxExecutionNanos.get() / 1000;
+	}
+
+	public void destroy() {
+		destroyed = true;
+		for (Shard shard : shards) {
+			shard.capacityChanged();
+			shard.thread.interrupt();
+		}
+	}
+
+	private static class TimedJob {
+		final String key;
+		final Runnable job;
+		final long enqueuedNanos;
+
+		TimedJob(String key, Runnable job) {
+			this.key = key;
+			this.job = job;
+			this.enqueuedNanos = System.nanoTime();
+		}
+
+		boolean sameWork(TimedJob other) {
+			return (key == null ? other.key == null : key.equals(other.key)) && job.equals(other.job);
+		}
+	}
+
+	private class Shard implements Runnable {
+		Thread thread;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+		// guarded by lock
+		private final ArrayDeque<TimedJob> high = new ArrayDeque<TimedJob>();
+		private final ArrayDeque<TimedJob> normal = new ArrayDeque<TimedJob>();
+		// set from the first job queued over capacity until the lane has room again
+		private boolean overflowing = false;
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong totalWaitNanos = new AtomicLong();
+		final AtomicLong totalExecutionNanos = new AtomicLong();
+		final AtomicLong maxExecutionNanos = new AtomicLong();
+
+		void offer(TimedJob timedJob, Priority priority) {
+			lock.lock();
+			try {
+				if (priority == Priority.HIGH) {
+					high.add(timedJob);
+				} else {
+					if (!makeRoom(timedJob)) {
+						return;
+					}
+					normal.add(timedJob);
+				}
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Applies the overflow policy while the normal lane is full.
+		 *
+		 * @return false if the job must not be queued
+		 */
+		private boolean makeRoom(TimedJob timedJob) {
+			boolean interrupted = false;
+			try {
+				while (normal.size() >= capacity && !destroyed) {
+					OverflowPolicy policy = overflowPolicy;
+					// never wait on a shard from a background job or the event thread; an interrupted
+					// submitter still gets its job queued
+					boolean mustNotWait = currentShard.get() != null || neverBlock.get() != null || interrupted;
+					if ((policy == OverflowPolicy.COALESCE || (mustNotWait && policy == OverflowPolicy.BLOCK))
+							&& containsSameWork(timedJob)) {
+						coalesced.incrementAndGet();
+						return false;
+					}
+					if (policy == OverflowPolicy.DROP_OLDEST_PER_PATH && removeSameWork(timedJob)) {
+						dropped.incrementAndGet();
+						return true;
+					}
+					if (mustNotWait) {
+						overCapacity.incrementAndGet();
+						if (!overflowing) {
+							overflowing = true;
+							logger.warn("Normal lane of " + thread.getName() + " is full at " + capacity
+									+ " jobs, queueing jobs of threads that must not wait over capacity.");
+						}
+						return true;
+					}
+					try {
+						notFull.await();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				return true;
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private boolean containsSameWork(TimedJob timedJob) {
+			for (TimedJob queued : normal) {
+				if (queued.sameWork(timedJob)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean removeSameWork(TimedJob timedJob) {
+			for (Iterator<TimedJob> it = normal.iterator(); it.hasNext();) {
+				if (it.next().sameWork(timedJob)) {
+					it.remove();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private TimedJob take() throws InterruptedException {
+			lock.lockInterruptibly();
+			try {
+				while (high.isEmpty() && normal.isEmpty()) {
+					notEmpty.await();
+				}
+				TimedJob timedJob = high.poll();
+				if (timedJob == null) {
+					timedJob = normal.poll();
+					if (normal.size() < capacity) {
+						overflowing = false;
+					}
+					notFull.signal();
+				}
+				return timedJob;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void capacityChanged() {
+			lock.lock();
+			try {
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return high.size() + normal.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void run() {
+			currentShard.set(this);
+			while (true) {
+				if (destroyed) {
+					break;
+				}
+				try {
+					TimedJob timedJob = take();
+					long start = System.nanoTime();
+					try {
+						timedJob.job.run();
+					} finally {
+						record(start - timedJob.enqueuedNanos, System.nanoTime() - start);
+					}
+				} catch (InterruptedException ex) {
+					if (!destroyed) {
+						logger.warn("Interrupted when process job.", ex);
+					}
+				} catch (Throwable ex) {
+					logger.error("Exception occur when process job.", ex);
+				}
+			}
+		}
+
+		private void record(long waitNanos, long executionNanos) {
+			completed.incrementAndGet();
+			totalWaitNanos.addAndGet(waitNanos);
+			totalExecutionNanos.addAndGet(executionNanos);
+			long max;
+			while ((max = maxExecutionNanos.get()) < executionNanos) {
+				if (maxExecutionNanos.compareAndSet(max, executionNanos)) {
+					break;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.adanac.framework.zookeeper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link NodeDeserializer} reading node data through a read-only {@link ByteBuffer} view of the
+ * array returned by ZooKeeper, so that implementations can parse the payload in place instead of
+ * copying it or decoding it to an intermediate String first.
+ *
+ * @param <T> the type of data associated with this node
+ * @author adanac
+ * @version 1.0
+ */
+public abstract class ByteBufferNodeDeserializer<T> implements NodeDeserializer<T> {
+
+	@Override
+	public final T deserialize(byte[] data) {
+		return deserialize(data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer());
+	}
+
+	/**
+	 * @param data read-only view of the node data between its position and limit, or null if the
+	 *             node has no data
+	 */
+	public abstract T deserialize(ByteBuffer data);
+}
@@ -0,0 +1,14 @@
+package com.adanac.framework.zookeeper;
+
+/**
+ * Receives incremental changes of the children watched by a {@link ZooKeeperChildren}.
+ *
+ * @param <T> the type of data associated with each child
+ */
+public interface ChildrenListener<T> {
+	public void childAdded(String child, T data);
+
+	public void childUpdated(String child, T oldData, T newData);
+
+	public void childRemoved(String child, T oldData);
+}
@@ -0,0 +1,29 @@
+package com.adanac.framework.zookeeper;
+
+/**
+ * States of a zookeeper session reported to {@link ConnectionStateListener}s.
+ */
+public enum ConnectionState {
+	/**
+	 * A new session connected for the first time.
+	 */
+	CONNECTED,
+	/**
+	 * The connection was lost; the session may still be alive and cached data may be stale.
+	 */
+	SUSPENDED,
+	/**
+	 * Connected again after {@link #SUSPENDED} or {@link #EXPIRED}, or to a read-write server after
+	 * {@link #READ_ONLY}. After an expiration this is a new session and watches are being re-armed
+	 * by the expiration handlers.
+	 */
+	RECONNECTED,
+	/**
+	 * The session expired: its watches and ephemeral nodes are gone.
+	 */
+	EXPIRED,
+	/**
+	 * Connected to a server that lost contact with the quorum; only reads are served.
+	 */
+	READ_ONLY
+}
@@ -0,0 +1,14 @@
+package com.adanac.framework.zookeeper;
+
+/**
+ * Receives the state changes of the sessions of a {@link ZooKeeperClient}. Callbacks are run one at
+ * a time in order of the changes, never on the zookeeper event thread.
+ */
+public interface ConnectionStateListener {
+	/**
+	 * @param client  the client owning the session
+	 * @param session index of the session within the client
+	 * @param state   the new state of the session
+	 */
+	public void stateChanged(ZooKeeperClient client, int session, ConnectionState state);
+}
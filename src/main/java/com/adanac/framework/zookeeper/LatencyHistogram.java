@@ -0,0 +1,81 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in milliseconds. Values are counted in power of two buckets,
+ * so percentiles are reported as the upper bound of their bucket.
+ * @author adanac
+ * @version 1.0
+ */
+public class LatencyHistogram {
+	// bucket i counts values in [2^(i-1), 2^i), bucket 0 counts 0
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long millis) {
+		if (millis < 0) {
+			millis = 0;
+		}
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(millis));
+		count.incrementAndGet();
+		total.addAndGet(millis);
+		long current;
+		while ((current = max.get()) < millis) {
+			if (max.compareAndSet(current, millis)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return average recorded value, 0 if none
+	 */
+	public long getMeanMs() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	public long getMaxMs() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile in (0, 100]
+	 * @return upper bound of the bucket holding the given percentile, capped by the maximum; 0 if
+	 *         nothing was recorded
+	 */
+	public long getPercentileMs(double percentile) {
+		if (percentile <= 0 || percentile > 100)
+			throw new IllegalArgumentException();
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				long upper = i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+				return Math.min(upper, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + getMeanMs() + "ms, p50=" + getPercentileMs(50) + "ms, p99="
+				+ getPercentileMs(99) + "ms, max=" + getMaxMs() + "ms";
+	}
+}
@@ -0,0 +1,193 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers {@link DataListener} callbacks on an executor rather than on the thread that detected
+ * the change. Events are dispatched through {@link Channel}s: the events of one channel are
+ * delivered one at a time in order, while different channels are delivered concurrently. A
+ * conflating channel merges queued events, so a slow listener only sees the latest value, and
+ * drops them when the merged change is a no-op.
+ * @author adanac
+ * @version 1.0
+ */
+public class ListenerDispatcher {
+	private static Logger logger = LoggerFactory.getLogger(ListenerDispatcher.class);
+
+	private volatile Executor executor;
+	private final AtomicLong dispatched = new AtomicLong();
+	private final AtomicLong conflated = new AtomicLong();
+	private final AtomicLong totalExecutionNanos = new AtomicLong();
+	private final AtomicLong maxExecutionNanos = new AtomicLong();
+
+	public ListenerDispatcher(Executor executor) {
+		setExecutor(executor);
+	}
+
+	/**
+	 * Replaces the executor running the listeners; events already handed to the previous executor
+	 * are still delivered by it.
+	 */
+	public void setExecutor(Executor executor) {
+		if (executor == null)
+			throw new IllegalArgumentException();
+		this.executor = executor;
+	}
+
+	/**
+	 * @param conflate whether queued events of the channel are merged into the latest one
+	 */
+	public <T> Channel<T> newChannel(boolean conflate) {
+		return new Channel<T>(conflate);
+	}
+
+	/**
+	 * @return number of listener callbacks executed
+	 */
+	public long getDispatchedCount() {
+		return dispatched.get();
+	}
+
+	/**
+	 * @return number of events merged into a later event instead of being delivered
+	 */
+	public long getConflatedCount() {
+		return conflated.get();
+	}
+
+	/**
+	 * @return average time in microseconds a listener callback took
+	 */
+	public long getAverageExecutionMicros() {
+		long count = dispatched.get();
+		return count == 0 ? 0 : totalExecutionNanos.get() / count / 1000;
+	}
+
+	/**
+	 * @return longest time in microseconds a single listener callback took
+	 */
+	public long getMaxExecutionMicros() {
+		return maxExecutionNanos.get() / 1000;
+	}
+
+	private void record(long executionNanos) {
+		dispatched.incrementAndGet();
+		totalExecutionNanos.addAndGet(executionNanos);
+		long max;
+		while ((max = maxExecutionNanos.get()) < executionNanos) {
+			if (maxExecutionNanos.compareAndSet(max, executionNanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * An ordered stream of listener events, typically one per node.
+	 */
+	public class Channel<T> implements Runnable {
+		private volatile boolean conflate;
+		// guarded by this
+		private final LinkedList<Event<T>> pending = new LinkedList<Event<T>>();
+		private boolean scheduled = false;
+		private boolean closed = false;
+
+		Channel(boolean conflate) {
+			this.conflate = conflate;
+		}
+
+		public void setConflate(boolean conflate) {
+			this.conflate = conflate;
+		}
+
+		/**
+		 * Drops the queued events and ignores later ones, so that a removed listener isn't called
+		 * again. An event being delivered meanwhile still completes.
+		 */
+		public synchronized void close() {
+			closed = true;
+			pending.clear();
+		}
+
+		/**
+		 * Queues {@code listener.dataChanged(oldData, newData)} behind the events already queued
+		 * on this channel.
+		 */
+		public void dispatch(DataListener<T> listener, T oldData, T newData) {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				if (conflate && !pending.isEmpty() && pending.getLast().listener == listener) {
+					// keep the oldest old value and the latest new value
+					Event<T> last = pending.getLast();
+					last.newData = newData;
+					conflated.incrementAndGet();
+					if (_equals(last.oldData, newData)) {
+						// the changes cancelled out, like any other no-op change it isn't reported
+						pending.removeLast();
+						conflated.incrementAndGet();
+					}
+					return;
+				}
+				pending.add(new Event<T>(listener, oldData, newData));
+				if (scheduled) {
+					return;
+				}
+				scheduled = true;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				logger.warn("Listener executor rejected events, dropping them.", e);
+				synchronized (this) {
+					pending.clear();
+					scheduled = false;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Event<T> event;
+				synchronized (this) {
+					event = pending.poll();
+					if (event == null) {
+						scheduled = false;
+						return;
+					}
+				}
+				long start = System.nanoTime();
+				try {
+					event.listener.dataChanged(event.oldData, event.newData);
+				} catch (Throwable ex) {
+					logger.error("Exception occur when notify data changed.", ex);
+				} finally {
+					record(System.nanoTime() - start);
+				}
+			}
+		}
+	}
+
+	private static boolean _equals(Object data1, Object data2) {
+		return data1 == null ? data2 == null : data1.equals(data2);
+	}
+
+	private static class Event<T> {
+		final DataListener<T> listener;
+		final T oldData;
+		T newData;
+
+		Event(DataListener<T> listener, T oldData, T newData) {
+			this.listener = listener;
+			this.oldData = oldData;
+			this.newData = newData;
+		}
+	}
+}
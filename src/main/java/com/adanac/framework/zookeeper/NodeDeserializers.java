@@ -0,0 +1,375 @@
+package com.adanac.framework.zookeeper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Built-in {@link NodeDeserializer}s. They parse the node data in place through
+ * {@link ByteBufferNodeDeserializer} and are stateless singletons, so nodes created with them are
+ * shared by the client like nodes created with any other single deserializer instance.
+ * @author adanac
+ * @version 1.0
+ */
+public final class NodeDeserializers {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ByteBufferNodeDeserializer<String> UTF8_STRING = new ByteBufferNodeDeserializer<String>() {
+		@Override
+		public String deserialize(ByteBuffer data) {
+			if (data == null) {
+				return null;
+			}
+			return decode(data, data.position(), data.limit());
+		}
+	};
+
+	private static final ByteBufferNodeDeserializer<Long> LONG_VALUE = new ByteBufferNodeDeserializer<Long>() {
+		@Override
+		public Long deserialize(ByteBuffer data) {
+			if (data == null) {
+				return null;
+			}
+			return parseLong(data);
+		}
+	};
+
+	private static final ByteBufferNodeDeserializer<Properties> PROPERTIES = new ByteBufferNodeDeserializer<Properties>() {
+		@Override
+		public Properties deserialize(ByteBuffer data) {
+			if (data == null) {
+				return null;
+			}
+			Properties properties = new Properties();
+			try {
+				properties.load(new ByteBufferInputStream(data));
+			} catch (IOException e) {
+				// can't happen reading from memory
+				throw new IllegalArgumentException(e);
+			}
+			return properties;
+		}
+	};
+
+	private static final ByteBufferNodeDeserializer<Map<String, String>> KEY_VALUE_MAP = new ByteBufferNodeDeserializer<Map<String, String>>() {
+		@Override
+		public Map<String, String> deserialize(ByteBuffer data) {
+			if (data == null) {
+				return null;
+			}
+			return new FlatJsonParser(data).parse();
+		}
+	};
+
+	private NodeDeserializers() {
+	}
+
+	/**
+	 * @return deserializer decoding node data as a UTF-8 string
+	 */
+	public static ByteBufferNodeDeserializer<String> utf8String() {
+		return UTF8_STRING;
+	}
+
+	/**
+	 * @return deserializer parsing node data holding a decimal number, surrounding whitespace is
+	 *         ignored; empty data deserializes to null
+	 * @throws NumberFormatException on data that is not a number
+	 */
+	public static ByteBufferNodeDeserializer<Long> longValue() {
+		return LONG_VALUE;
+	}
+
+	/**
+	 * @return deserializer loading node data in {@link Properties#load(InputStream)} format
+	 */
+	public static ByteBufferNodeDeserializer<Properties> properties() {
+		return PROPERTIES;
+	}
+
+	/**
+	 * @return deserializer parsing node data holding a flat JSON object to an unmodifiable map in
+	 *         document order. Strings, numbers and booleans become their string value and
+	 *         {@code null} a null value; nested objects and arrays are rejected.
+	 * @throws IllegalArgumentException on data that is not a flat JSON object
+	 */
+	public static ByteBufferNodeDeserializer<Map<String, String>> keyValueMap() {
+		return KEY_VALUE_MAP;
+	}
+
+	private static String decode(ByteBuffer data, int start, int end) {
+		// ascii is by far the common case, copy it straight into the chars of the result
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			byte b = data.get(i);
+			if (b < 0) {
+				ByteBuffer slice = data.duplicate();
+				slice.limit(end);
+				slice.position(start);
+				return UTF8.decode(slice).toString();
+			}
+			chars[i - start] = (char) b;
+		}
+		return new String(chars);
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static Long parseLong(ByteBuffer data) {
+		int start = data.position();
+		int end = data.limit();
+		while (start < end && isWhitespace(data.get(start))) {
+			start++;
+		}
+		while (end > start && isWhitespace(data.get(end - 1))) {
+			end--;
+		}
+		if (start == end) {
+			return null;
+		}
+		boolean negative = false;
+		int i = start;
+		byte first = data.get(i);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			i++;
+		}
+		if (i == end) {
+			throw new NumberFormatException("Not a number: " + decode(data, start, end));
+		}
+		// accumulate negatively so that Long.MIN_VALUE parses
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multiplyLimit = limit / 10;
+		long result = 0;
+		for (; i < end; i++) {
+			int digit = data.get(i) - '0';
+			if (digit < 0 || digit > 9 || result < multiplyLimit) {
+				throw new NumberFormatException("Not a number: " + decode(data, start, end));
+			}
+			result *= 10;
+			if (result < limit + digit) {
+				throw new NumberFormatException("Not a number: " + decode(data, start, end));
+			}
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Reads a buffer without copying it to an array first.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer.duplicate();
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Parses a JSON object of scalar values straight from the buffer; only keys and values are
+	 * turned into Strings.
+	 */
+	private static class FlatJsonParser {
+		private final ByteBuffer data;
+		private final int end;
+		private int pos;
+
+		FlatJsonParser(ByteBuffer data) {
+			this.data = data;
+			this.pos = data.position();
+			this.end = data.limit();
+		}
+
+		Map<String, String> parse() {
+			Map<String, String> map = new LinkedHashMap<String, String>();
+			expect('{');
+			if (peek() == '}') {
+				pos++;
+			} else {
+				while (true) {
+					String key = readString();
+					expect(':');
+					map.put(key, readValue());
+					byte b = next();
+					if (b == '}') {
+						break;
+					}
+					if (b != ',') {
+						throw error("expected ',' or '}'");
+					}
+				}
+			}
+			skipWhitespace();
+			if (pos != end) {
+				throw error("unexpected data after object");
+			}
+			return Collections.unmodifiableMap(map);
+		}
+
+		private String readValue() {
+			byte b = peek();
+			if (b == '"') {
+				return readString();
+			}
+			if (b == '{' || b == '[') {
+				throw error("nested values are not supported");
+			}
+			int start = pos;
+			while (pos < end) {
+				b = data.get(pos);
+				if (b == ',' || b == '}' || isWhitespace(b)) {
+					break;
+				}
+				pos++;
+			}
+			if (start == pos) {
+				throw error("expected a value");
+			}
+			if (matches(start, "null")) {
+				return null;
+			}
+			return decode(data, start, pos);
+		}
+
+		private boolean matches(int start, String literal) {
+			if (pos - start != literal.length()) {
+				return false;
+			}
+			for (int i = 0; i < literal.length(); i++) {
+				if (data.get(start + i) != literal.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String readString() {
+			expect('"');
+			int start = pos;
+			StringBuilder escaped = null;
+			while (true) {
+				if (pos >= end) {
+					throw error("unterminated string");
+				}
+				byte b = data.get(pos);
+				if (b == '"') {
+					break;
+				}
+				if (b != '\\') {
+					pos++;
+					continue;
+				}
+				if (escaped == null) {
+					escaped = new StringBuilder();
+				}
+				escaped.append(decode(data, start, pos));
+				pos++;
+				escaped.append(readEscape());
+				start = pos;
+			}
+			String tail = decode(data, start, pos);
+			pos++;
+			return escaped == null ? tail : escaped.append(tail).toString();
+		}
+
+		private char readEscape() {
+			if (pos >= end) {
+				throw error("unterminated escape");
+			}
+			byte b = data.get(pos++);
+			switch (b) {
+			case '"':
+			case '\\':
+			case '/':
+				return (char) b;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				if (pos + 4 > end) {
+					throw error("unterminated escape");
+				}
+				int c = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(data.get(pos++), 16);
+					if (digit < 0) {
+						throw error("invalid unicode escape");
+					}
+					c = (c << 4) | digit;
+				}
+				return (char) c;
+			default:
+				throw error("invalid escape");
+			}
+		}
+
+		private void expect(char c) {
+			if (next() != c) {
+				throw error("expected '" + c + "'");
+			}
+		}
+
+		private byte next() {
+			byte b = peek();
+			pos++;
+			return b;
+		}
+
+		private byte peek() {
+			skipWhitespace();
+			if (pos >= end) {
+				throw error("unexpected end of data");
+			}
+			return data.get(pos);
+		}
+
+		private void skipWhitespace() {
+			while (pos < end && isWhitespace(data.get(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Invalid node data at byte " + (pos - data.position()) + ": "
+					+ message);
+		}
+	}
+}
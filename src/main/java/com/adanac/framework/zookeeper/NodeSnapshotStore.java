@@ -0,0 +1,280 @@
+package com.adanac.framework.zookeeper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local on-disk copy of the last known data of zookeeper nodes, keyed by path and tagged with
+ * the mzxid the data was read at. Nodes created with a store start with the persisted value and
+ * keep it up to date, so a process can start with last-known values while zookeeper is slow or
+ * unreachable. The file is an append-only log that is loaded into memory on open and compacted
+ * when it grows well beyond its live content.
+ * @author adanac
+ * @version 1.0
+ */
+public class NodeSnapshotStore {
+	private static Logger logger = LoggerFactory.getLogger(NodeSnapshotStore.class);
+
+	private static final int MAGIC = 0x7a6b736e; // "zksn"
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final int MIN_COMPACT_RECORDS = 1024;
+
+	private final File file;
+	private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+	private DataOutputStream out;
+	private int records = 0;
+	private boolean closed = false;
+
+	/**
+	 * Opens the store backed by {@code file}, creating it if it doesn't exist.
+	 *
+	 * @throws IOException if the file can't be read or created
+	 */
+	public static NodeSnapshotStore open(File file) throws IOException {
+		NodeSnapshotStore store = new NodeSnapshotStore(file);
+		store.load();
+		return store;
+	}
+
+	private NodeSnapshotStore(File file) {
+		if (file == null)
+			throw new IllegalArgumentException();
+		this.file = file;
+	}
+
+	/**
+	 * @return the last persisted data of {@code path}, or null if none
+	 */
+	public Snapshot get(String path) {
+		return snapshots.get(path);
+	}
+
+	/**
+	 * Persists the data of {@code path} read at {@code mzxid}.
+	 */
+	public synchronized void put(String path, long mzxid, byte[] data) throws IOException {
+		if (closed) {
+			return;
+		}
+		Snapshot previous = snapshots.get(path);
+		if (previous != null && previous.mzxid == mzxid) {
+			return;
+		}
+		snapshots.put(path, new Snapshot(mzxid, data));
+		out.writeByte(PUT);
+		out.writeUTF(path);
+		out.writeLong(mzxid);
+		if (data == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(data.length);
+			out.write(data);
+		}
+		appended();
+	}
+
+	/**
+	 * Forgets the data of {@code path}, e.g. because the node was deleted.
+	 */
+	public synchronized void remove(String path) throws IOException {
+		if (closed || snapshots.remove(path) == null) {
+			return;
+		}
+		out.writeByte(REMOVE);
+		out.writeUTF(path);
+		appended();
+	}
+
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close snapshot file " + file, e);
+		}
+	}
+
+	private void appended() throws IOException {
+		out.flush();
+		records++;
+		if (records > MIN_COMPACT_RECORDS && records > 2 * snapshots.size()) {
+			compact();
+		}
+	}
+
+	private synchronized void load() throws IOException {
+		long validLength = 0;
+		if (file.exists() && file.length() > 0) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not a snapshot file: " + file);
+				}
+				validLength = 4;
+				while (true) {
+					long length = readRecord(in);
+					if (length < 0) {
+						break;
+					}
+					validLength += length;
+					records++;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (validLength == 0) {
+			// new file
+			rewrite();
+			return;
+		}
+		if (validLength < file.length()) {
+			// drop a record torn by a crash
+			logger.warn("Truncating snapshot file " + file + " to " + validLength + " bytes.");
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(validLength);
+			} finally {
+				raf.close();
+			}
+		}
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		logger.info("Loaded " + snapshots.size() + " node snapshots from " + file);
+	}
+
+	/**
+	 * @return the length of the record read, or -1 at the end of the valid log
+	 */
+	private long readRecord(DataInputStream in) throws IOException {
+		try {
+			byte type = in.readByte();
+			String path = in.readUTF();
+			long pathLength = 2 + utfLength(path);
+			if (type == REMOVE) {
+				snapshots.remove(path);
+				return 1 + pathLength;
+			}
+			if (type != PUT) {
+				return -1;
+			}
+			long mzxid = in.readLong();
+			int dataLength = in.readInt();
+			if (dataLength < -1 || dataLength > file.length()) {
+				// a torn or corrupt length, -1 stands for null data
+				return -1;
+			}
+			byte[] data = null;
+			if (dataLength >= 0) {
+				data = new byte[dataLength];
+				in.readFully(data);
+			}
+			snapshots.put(path, new Snapshot(mzxid, data));
+			return 1 + pathLength + 8 + 4 + Math.max(0, dataLength);
+		} catch (EOFException e) {
+			return -1;
+		} catch (UTFDataFormatException e) {
+			return -1;
+		}
+	}
+
+	private static int utfLength(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+
+	private void compact() throws IOException {
+		out.close();
+		rewrite();
+		logger.info("Compacted snapshot file " + file + " to " + snapshots.size() + " records.");
+	}
+
+	/**
+	 * Writes the live snapshots to a new file, replaces the current file with it and reopens it for
+	 * appending.
+	 */
+	private void rewrite() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directory " + parent);
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			tmpOut.writeInt(MAGIC);
+			for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+				Snapshot snapshot = entry.getValue();
+				tmpOut.writeByte(PUT);
+				tmpOut.writeUTF(entry.getKey());
+				tmpOut.writeLong(snapshot.mzxid);
+				if (snapshot.data == null) {
+					tmpOut.writeInt(-1);
+				} else {
+					tmpOut.writeInt(snapshot.data.length);
+					tmpOut.write(snapshot.data);
+				}
+			}
+		} finally {
+			tmpOut.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// renameTo doesn't replace an existing file on every platform
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Failed to replace snapshot file " + file);
+			}
+		}
+		records = snapshots.size();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/**
+	 * The persisted data of a node and the mzxid it was read at.
+	 */
+	public static class Snapshot {
+		private final long mzxid;
+		private final byte[] data;
+
+		Snapshot(long mzxid, byte[] data) {
+			this.mzxid = mzxid;
+			this.data = data;
+		}
+
+		public long getMzxid() {
+			return mzxid;
+		}
+
+		/**
+		 * @return the raw node data, must not be modified
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.adanac.framework.zookeeper;
+
+/**
+ * An {@link AsyncCommand} that can also re-arm its watches cheaply when its session was resumed
+ * rather than expired: the data on the server is still what was read, only the watches were lost
+ * with the detached handle, so only what changed meanwhile needs to be read again.
+ *
+ * @param <E> The type of exception that the command throws.
+ */
+public interface ResumableCommand<E extends RuntimeException> extends AsyncCommand<E> {
+
+	/**
+	 * Starts re-arming the watches on the new handle of a resumed session and returns immediately.
+	 *
+	 * @param onComplete must be run exactly once when the work is finished, whether or not it
+	 *                   succeeded
+	 */
+	void resumeAsync(Runnable onComplete);
+}
@@ -0,0 +1,726 @@
+package com.adanac.framework.zookeeper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adanac.framework.zookeeper.intf.Supplier;
+import com.adanac.framework.zookeeper.util.BackoffHelper;
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * The watch and cached value of a node, shared by every {@link ZooKeeperNode} of the same client,
+ * path, deserializer and snapshot store. It is reference counted by the client's node registry and
+ * destroyed once the last holder released it.
+ *
+ * @param <T> the type of data associated with this node
+ * @author adanac
+ * @version 1.0
+ */
+final class SharedNode<T> {
+
+	// logged under the public class, like the rest of the node code
+	private static Logger logger = LoggerFactory.getLogger(ZooKeeperNode.class);
+	private ZooKeeperClient client;
+	private String nodePath;
+	private NodeDeserializer<T> deserializer;
+	private BackoffHelper backoffHelper;
+	private volatile T nodeData;
+	// mzxid of the data held in nodeData, -1 if the node was never read or doesn't exist
+	private volatile long nodeMzxid = -1;
+	// payload nodeData was deserialized from, guarded by this; valid only while rawDataKnown
+	private byte[] nodeRawData;
+	private boolean rawDataKnown = false;
+	private final NodeSnapshotStore snapshotStore;
+	// orders the snapshot writes of this node, which are done outside the node lock
+	private final Object snapshotLock = new Object();
+	// subscribers of all holders, each has its own channel so a slow listener doesn't hold back the others
+	private final List<Subscriber<T>> subscribers = new CopyOnWriteArrayList<Subscriber<T>>();
+	private final Watcher nodeWatcher;
+	private final Supplier<Boolean, InterruptedException> watchTask;
+	// same as watchTask but doesn't park the background thread while the session is connecting
+	private final Supplier<Boolean, InterruptedException> backgroundWatchTask;
+	private final Supplier<Boolean, InterruptedException> refreshTask;
+	private final Executor pathExecutor;
+	// the same jobs are queued for every refresh, so that a full background lane can coalesce them
+	private final Runnable refreshJob;
+	private final Runnable asyncRefreshJob;
+	// set while a refresh of this node is queued or waiting for its retry, so that bursts of watch
+	// events collapse into one getData
+	private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+	// serializes the blocking refreshes; a lock rather than the node monitor, so that a virtual
+	// thread waiting for the connection doesn't pin its carrier nor hold up listener registration
+	// and asynchronous results
+	private final ReentrantLock refreshLock = new ReentrantLock();
+	private volatile boolean destroyed = false;
+	private volatile boolean asyncRefresh = false;
+	private volatile BackgroundJobExecutor.Priority jobPriority = BackgroundJobExecutor.Priority.NORMAL;
+	private volatile boolean synced = false;
+	// holders of this node, see ZooKeeperClient#acquireNode
+	private final AtomicInteger references = new AtomicInteger(1);
+	private AsyncCommand<RuntimeException> expirationHandler;
+
+	SharedNode(final ZooKeeperClient zkClient, String path, NodeDeserializer<T> deserializer,
+			NodeSnapshotStore snapshotStore) {
+		if (zkClient == null)
+			throw new IllegalArgumentException();
+		if (path == null || "".equals(path.trim()))
+			throw new IllegalArgumentException();
+		if (deserializer == null)
+			throw new IllegalArgumentException();
+		this.client = zkClient;
+		this.nodePath = ZooKeeperUtils.normalizePath(path);
+		this.deserializer = deserializer;
+		backoffHelper = new BackoffHelper(zkClient.getRetryScheduler());
+		destroyed = false;
+		nodeData = null;
+		this.snapshotStore = snapshotStore;
+		loadSnapshot();
+		nodeWatcher = new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				logger.debug("Node " + nodePath + " ,event:" + event);
+				if (destroyed) {
+					logger.warn("Node " + nodePath + " has been destroyed, will ignore event " + event);
+					return;
+				}
+				if (event.getState() == KeeperState.SyncConnected && (!Event.EventType.None.equals(event.getType()))) {
+					addWatchBackgroundJob();
+				}
+			}
+		};
+		watchTask = newWatchTask(false);
+		backgroundWatchTask = newWatchTask(true);
+		refreshTask = new Supplier<Boolean, InterruptedException>() {
+			@Override
+			public Boolean get() throws InterruptedException {
+				// events arriving from now on are not covered by this read and must queue again
+				refreshPending.set(false);
+				if (backgroundWatchTask.get()) {
+					return true;
+				}
+				// keep retrying only if no newer refresh has been queued meanwhile
+				return !refreshPending.compareAndSet(false, true);
+			}
+		};
+		refreshJob = new Runnable() {
+			@Override
+			public void run() {
+				BackoffHelper helper = backoffHelper;
+				if (destroyed || helper == null) {
+					logger.warn("Node " + nodePath + " has been destroyed.");
+					return;
+				}
+				helper.doUntilSuccessAsync(refreshTask, pathExecutor, null);
+			}
+		};
+		asyncRefreshJob = new Runnable() {
+			@Override
+			public void run() {
+				refreshPending.set(false);
+				watchDataNodeAsync((LoadCallback) null);
+			}
+		};
+		// retries of this node run on the background thread owning its path
+		pathExecutor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				zkClient.addBackgroundJob(nodePath, command, jobPriority);
+			}
+		};
+		expirationHandler = new AsyncCommand<RuntimeException>() {
+
+			@Override
+			public String toString() {
+				return "ExpirationHandler@" + hashCode() + " of node " + nodePath;
+			}
+
+			@Override
+			public void execute() {
+				if (destroyed) {
+					logger.warn("Node " + nodePath + " has been destroyed.");
+					return;
+				}
+				addWatchBackgroundJob();
+			}
+
+			@Override
+			public void executeAsync(Runnable onComplete) {
+				rearmWatchAsync(onComplete);
+			}
+		};
+	}
+
+	private void loadSnapshot() {
+		if (snapshotStore == null) {
+			return;
+		}
+		NodeSnapshotStore.Snapshot snapshot = snapshotStore.get(nodePath);
+		if (snapshot == null) {
+			return;
+		}
+		try {
+			nodeData = deserializer.deserialize(snapshot.getData());
+			nodeMzxid = snapshot.getMzxid();
+			nodeRawData = snapshot.getData();
+			rawDataKnown = true;
+		} catch (RuntimeException e) {
+			logger.warn("Failed to deserialize snapshot of node " + nodePath + ", ignore it.", e);
+		}
+	}
+
+	void sync(boolean retryUntilSuccess) throws DataException {
+		client.registerExpirationHandler(nodePath, expirationHandler);
+		if (synced && !destroyed) {
+			// already loaded and watched for another holder of this shared node
+			return;
+		}
+		if (retryUntilSuccess) {
+			try {
+				watchDataNodeUntilSuccess();
+			} catch (InterruptedException e) {
+				logger.warn("Interrupted while trying to watch a data node " + nodePath, e);
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			try {
+				watchDataNode(true);
+			} catch (Exception ex) {
+				addWatchBackgroundJob();
+				throw new DataException(ex);
+			}
+		}
+	}
+
+	T getData() {
+		return nodeData;
+	}
+
+	// see ZooKeeperNode#setAsyncRefresh
+	void setAsyncRefresh(boolean asyncRefresh) {
+		this.asyncRefresh = asyncRefresh;
+	}
+
+	boolean isAsyncRefresh() {
+		return asyncRefresh;
+	}
+
+	// see ZooKeeperNode#setCritical
+	void setCritical(boolean critical) {
+		this.jobPriority = critical ? BackgroundJobExecutor.Priority.HIGH : BackgroundJobExecutor.Priority.NORMAL;
+	}
+
+	boolean isCritical() {
+		return jobPriority == BackgroundJobExecutor.Priority.HIGH;
+	}
+
+	void addSubscriber(Subscriber<T> subscriber) {
+		subscribers.add(subscriber);
+	}
+
+	/**
+	 * Under the node lock, so that it can't race with the registration of a monitoring subscriber.
+	 */
+	synchronized void removeSubscriber(Subscriber<T> subscriber) {
+		subscribers.remove(subscriber);
+	}
+
+	/**
+	 * Registers {@code subscriber} once the node is loaded and watched, notifying it first if the
+	 * data differs from {@code currentExpectData}. Nothing is registered if the subscriber has been
+	 * cancelled meanwhile.
+	 */
+	void monitor(final T currentExpectData, final Subscriber<T> subscriber) {
+		client.addBackgroundJob(nodePath, new Runnable() {
+			@Override
+			public void run() {
+				if (destroyed) {
+					logger.warn("Node " + nodePath + " has been destroyed.");
+					return;
+				}
+				watchDataNodeInBackground(new Runnable() {
+					@Override
+					public void run() {
+						// under the node lock, so no change slips between the check and the registration
+						synchronized (SharedNode.this) {
+							if (subscriber.cancelled) {
+								return;
+							}
+							if (!_equals(currentExpectData, nodeData)) {
+								subscriber.channel.dispatch(subscriber.listener, currentExpectData, nodeData);
+							}
+							subscribers.add(subscriber);
+						}
+					}
+				});
+			}
+		}, jobPriority);
+	}
+
+	private boolean _equals(T data1, T data2) {
+		if (data1 == null) {
+			if (data2 != null) {
+				return false;
+			}
+		} else if (!data1.equals(data2)) {
+			return false;
+		}
+		return true;
+	}
+
+	private void addWatchBackgroundJob() {
+		addWatchBackgroundJob(asyncRefresh);
+	}
+
+	/**
+	 * @param async whether to refresh with an asynchronous read, or with a blocking read retried
+	 *              with backoff
+	 */
+	private void addWatchBackgroundJob(final boolean async) {
+		if (destroyed) {
+			logger.warn("Node " + nodePath + " has been destroyed.");
+			return;
+		}
+		if (!refreshPending.compareAndSet(false, true)) {
+			logger.debug("Node " + nodePath + " already has a pending refresh.");
+			return;
+		}
+		client.addBackgroundJob(nodePath, async ? asyncRefreshJob : refreshJob, jobPriority);
+	}
+
+	/**
+	 * Gives back a reference; the node is destroyed once every holder has released it.
+	 */
+	void release() {
+		if (references.decrementAndGet() == 0) {
+			ZooKeeperClient zkClient = client;
+			if (zkClient != null) {
+				zkClient.removeNode(this);
+			}
+			destroyNode();
+		}
+	}
+
+	/**
+	 * Takes another reference.
+	 *
+	 * @return false if the node has already been released by all its holders
+	 */
+	boolean retain() {
+		int count;
+		do {
+			count = references.get();
+			if (count <= 0) {
+				return false;
+			}
+		} while (!references.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	String getPath() {
+		return nodePath;
+	}
+
+	NodeDeserializer<T> getDeserializer() {
+		return deserializer;
+	}
+
+	NodeSnapshotStore getSnapshotStore() {
+		return snapshotStore;
+	}
+
+	private void destroyNode() {
+		if (this.expirationHandler != null) {
+			client.unRegisterExpirationHandler(this.expirationHandler);
+		}
+		this.destroyed = true;
+		this.nodeData = null;
+		this.nodeMzxid = -1;
+		this.nodeRawData = null;
+		this.rawDataKnown = false;
+		this.client = null;
+		this.deserializer = null;
+		this.backoffHelper = null;
+		this.subscribers.clear();
+	}
+
+	synchronized void updateData(T newData) {
+		T oldData = nodeData;
+		nodeData = newData;
+		if (!subscribers.isEmpty() && !_equals(oldData, nodeData)) {
+			// delivered on the client's listener executor, in order, outside the node lock
+			for (Subscriber<T> subscriber : subscribers) {
+				subscriber.channel.dispatch(subscriber.listener, oldData, nodeData);
+			}
+		}
+	}
+
+	/**
+	 * Applies data read from zookeeper, skipping deserialization and listener dispatch when the
+	 * znode hasn't been modified since the data we already hold was read, e.g. on a re-watch after
+	 * reconnect, or when it was rewritten with the same bytes.
+	 */
+	private synchronized void updateData(byte[] rawData, Stat stat) {
+		if (stat.getMzxid() == nodeMzxid) {
+			logger.debug("Node " + nodePath + " unchanged at mzxid " + nodeMzxid + ", skip update.");
+			return;
+		}
+		if (rawDataKnown && Arrays.equals(rawData, nodeRawData)) {
+			// same payload, keep the current object instead of deserializing and comparing it
+			logger.debug("Node " + nodePath + " rewritten with identical data, skip update.");
+		} else {
+			T newData = deserializer.deserialize(rawData);
+			updateData(newData);
+			nodeRawData = rawData;
+			rawDataKnown = true;
+		}
+		nodeMzxid = stat.getMzxid();
+	}
+
+	/**
+	 * Reflects locally that the node doesn't exist.
+	 */
+	private synchronized void clearData() {
+		nodeMzxid = -1;
+		nodeRawData = null;
+		rawDataKnown = false;
+		updateData(null);
+	}
+
+	/**
+	 * Writes the data held now to the snapshot store. Called once a read has been applied, outside
+	 * the node lock so that readers and listeners of this node don't wait for the disk.
+	 */
+	private void persistSnapshot() {
+		if (snapshotStore == null) {
+			return;
+		}
+		synchronized (snapshotLock) {
+			long mzxid;
+			byte[] rawData;
+			synchronized (this) {
+				if (destroyed) {
+					return;
+				}
+				mzxid = nodeMzxid;
+				rawData = nodeRawData;
+			}
+			try {
+				if (mzxid < 0) {
+					snapshotStore.remove(nodePath);
+				} else {
+					snapshotStore.put(nodePath, mzxid, rawData);
+				}
+			} catch (IOException e) {
+				logger.warn("Failed to persist snapshot of node " + nodePath, e);
+			}
+		}
+	}
+
+	private void watchDataNodeUntilSuccess() throws InterruptedException {
+		if (destroyed) {
+			logger.warn("Node " + nodePath + " has been destroyed.");
+			return;
+		}
+		backoffHelper.doUntilSuccess(watchTask);
+	}
+
+	/**
+	 * Same as {@link #watchDataNodeUntilSuccess()} but never sleeps: failed attempts are rescheduled
+	 * on the client's retry scheduler, so the background thread is free for other nodes while this
+	 * one backs off.
+	 *
+	 * @param onSuccess run on the background thread of this node once the watch is established,
+	 *                  may be null
+	 */
+	private void watchDataNodeInBackground(Runnable onSuccess) {
+		BackoffHelper helper = backoffHelper;
+		if (destroyed || helper == null) {
+			logger.warn("Node " + nodePath + " has been destroyed.");
+			return;
+		}
+		helper.doUntilSuccessAsync(backgroundWatchTask, pathExecutor, onSuccess);
+	}
+
+	/**
+	 * Reads the node and re-arms its watch through the asynchronous zookeeper API, so that the reads
+	 * of many nodes are pipelined over the session. The result is applied on the background thread
+	 * of this node; failures fall back to a regular background refresh with backoff.
+	 *
+	 * @param onComplete run once the result has been applied or the fallback refresh queued, may be
+	 *                   null
+	 */
+	void watchDataNodeAsync(final Runnable onComplete) {
+		watchDataNodeAsync(onComplete == null ? null : new LoadCallback() {
+			@Override
+			public void loaded(boolean success, boolean retryable) {
+				onComplete.run();
+			}
+		});
+	}
+
+	/**
+	 * Re-arms the watch of this node on a new zookeeper handle. While the node holds data, only its
+	 * stat is read and the data is read again only if the node changed meanwhile, so re-watching
+	 * many unchanged nodes doesn't transfer their payloads.
+	 *
+	 * @param onComplete run once the watch is armed or the fallback refresh queued, may be null
+	 */
+	void rearmWatchAsync(final Runnable onComplete) {
+		final ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null || nodeMzxid < 0) {
+			watchDataNodeAsync(onComplete);
+			return;
+		}
+		try {
+			zkClient.get(nodePath).exists(nodePath, nodeWatcher, new AsyncCallback.StatCallback() {
+				@Override
+				public void processResult(int rc, String path, Object ctx, Stat stat) {
+					if (rc == KeeperException.Code.OK.intValue() && stat.getMzxid() == nodeMzxid) {
+						logger.debug("Node " + nodePath + " unchanged at mzxid " + nodeMzxid + ", watch re-armed.");
+						if (onComplete != null) {
+							zkClient.addBackgroundJob(nodePath, onComplete, jobPriority);
+						}
+						return;
+					}
+					// changed, deleted or failed, the data watch uses the same watcher and isn't doubled
+					watchDataNodeAsync(onComplete);
+				}
+			}, null);
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			watchDataNodeAsync(onComplete);
+		}
+	}
+
+	/**
+	 * Same as {@link #watchDataNodeAsync(Runnable)}, reporting whether the node was loaded. A node
+	 * that doesn't exist counts as loaded.
+	 */
+	void watchDataNodeAsync(final LoadCallback callback) {
+		final ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			logger.warn("Node " + nodePath + " has been destroyed.");
+			if (callback != null) {
+				callback.loaded(false, false);
+			}
+			return;
+		}
+		try {
+			zkClient.get(nodePath).getData(nodePath, nodeWatcher, new AsyncCallback.DataCallback() {
+				@Override
+				public void processResult(final int rc, String path, Object ctx, final byte[] data,
+						final Stat stat) {
+					// leave the zookeeper event thread before deserializing and notifying listeners
+					zkClient.addBackgroundJob(nodePath, new Runnable() {
+						@Override
+						public void run() {
+							boolean success = false;
+							try {
+								success = applyDataResult(rc, data, stat);
+								if (success) {
+									persistSnapshot();
+								}
+							} finally {
+								if (callback != null) {
+									callback.loaded(success, !success && isRetryable(rc));
+								}
+							}
+						}
+					}, jobPriority);
+				}
+			}, null);
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			logger.info("Watch path " + nodePath + " occur ZooKeeperConnectionException", e);
+			addWatchBackgroundJob(false);
+			if (callback != null) {
+				callback.loaded(false, true);
+			}
+		}
+	}
+
+	/**
+	 * Registers the expiration handler and starts an asynchronous load of this node, used to sync
+	 * many nodes at once.
+	 */
+	void syncAsync(LoadCallback callback) {
+		client.registerExpirationHandler(nodePath, expirationHandler);
+		watchDataNodeAsync(callback);
+	}
+
+	/**
+	 * Registers the expiration handler and queues a background load of this node.
+	 */
+	void syncInBackground() {
+		client.registerExpirationHandler(nodePath, expirationHandler);
+		addWatchBackgroundJob();
+	}
+
+	/**
+	 * Waits until the session this node is routed to is connected.
+	 *
+	 * @return false if the node has been destroyed or the session didn't connect in time
+	 */
+	boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			return false;
+		}
+		try {
+			zkClient.get(nodePath, timeout, unit);
+			return true;
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			return false;
+		}
+	}
+
+	private boolean isRetryable(int rc) {
+		KeeperException.Code code = KeeperException.Code.get(rc);
+		return code != KeeperException.Code.OK && ZooKeeperUtils.isRetryable(KeeperException.create(code, nodePath));
+	}
+
+	/**
+	 * @return whether the result has been applied
+	 */
+	private synchronized boolean applyDataResult(int rc, byte[] data, Stat stat) {
+		if (destroyed) {
+			logger.warn("Node " + nodePath + " has been destroyed.");
+			return false;
+		}
+		KeeperException.Code code = KeeperException.Code.get(rc);
+		if (code == KeeperException.Code.OK) {
+			updateData(data, stat);
+			synced = true;
+			return true;
+		} else if (code == KeeperException.Code.NONODE) {
+			clearData();
+			synced = true;
+			// the blocking refresh arms an exists watch and also covers a concurrent recreation
+			addWatchBackgroundJob(false);
+			return true;
+		} else {
+			KeeperException e = KeeperException.create(code, nodePath);
+			logger.info("Watch path " + nodePath + " KeeperException", e);
+			if (ZooKeeperUtils.isRetryable(e)) {
+				addWatchBackgroundJob(false);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A listener registered through one holder, see {@link ZooKeeperNode}.
+	 */
+	static class Subscriber<T> {
+		final DataListener<T> listener;
+		final ListenerDispatcher.Channel<T> channel;
+		// set once its holder removed it or was released, checked under the node lock
+		volatile boolean cancelled = false;
+
+		Subscriber(DataListener<T> listener, ListenerDispatcher.Channel<T> channel) {
+			this.listener = listener;
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Receives the outcome of an asynchronous load of a node.
+	 */
+	interface LoadCallback {
+		/**
+		 * @param retryable whether the load failed with an error that may go away, such as a
+		 *                  connection loss
+		 */
+		void loaded(boolean success, boolean retryable);
+	}
+
+	/**
+	 * @param background whether the read runs on a background thread. Background reads wait for the
+	 *                   session to connect only for the first load of this node; later they fail
+	 *                   with a connection loss at once and are retried with backoff.
+	 */
+	private Supplier<Boolean, InterruptedException> newWatchTask(final boolean background) {
+		return new Supplier<Boolean, InterruptedException>() {
+			@Override
+			public Boolean get() throws InterruptedException {
+				try {
+					watchDataNode(!background || !synced);
+					return true;
+				} catch (KeeperException e) {
+					logger.info("Watch path " + nodePath + " KeeperException", e);
+					return !ZooKeeperUtils.isRetryable(e);
+				} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+					logger.info("Watch path " + nodePath + " occur ZooKeeperConnectionException", e);
+					return false;
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param waitForConnection whether to wait up to the connection timeout for the session to be
+	 *                          connected before reading
+	 */
+	private void watchDataNode(boolean waitForConnection)
+			throws InterruptedException, KeeperException, ZooKeeperClient.ZooKeeperConnectionException {
+		refreshLock.lockInterruptibly();
+		try {
+			ZooKeeperClient zkClient = client;
+			if (destroyed || zkClient == null) {
+				logger.warn("Node " + nodePath + " has been destroyed.");
+				return;
+			}
+			try {
+				Stat stat = new Stat();
+				ZooKeeper zk = waitForConnection ? zkClient.getConnected(nodePath) : zkClient.get(nodePath);
+				byte[] rawData = zk.getData(nodePath, nodeWatcher, stat);
+				applyData(rawData, stat);
+				persistSnapshot();
+			} catch (KeeperException.NoNodeException e) {
+				if (applyNoNode()) {
+					persistSnapshot();
+					// This node doesn't exist right now, reflect that locally
+					// and then create a watch to wait for its recreation.
+					zkClient.get(nodePath).exists(nodePath, nodeWatcher);
+				}
+			}
+		} finally {
+			refreshLock.unlock();
+		}
+	}
+
+	private synchronized void applyData(byte[] rawData, Stat stat) {
+		if (destroyed) {
+			return;
+		}
+		updateData(rawData, stat);
+		synced = true;
+	}
+
+	/**
+	 * @return whether the node is still live and its absence has been applied
+	 */
+	private synchronized boolean applyNoNode() {
+		if (destroyed) {
+			return false;
+		}
+		clearData();
+		synced = true;
+		return true;
+	}
+}
@@ -0,0 +1,50 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of the client. The jar is multi-release: on JDK 21 and later this class is
+ * replaced by one that runs the client on virtual threads when the system property
+ * {@value #VIRTUAL_THREADS_PROPERTY} is {@code true}. This version always uses platform threads.
+ * @author adanac
+ * @version 1.0
+ */
+final class ThreadSupport {
+	static final String VIRTUAL_THREADS_PROPERTY = "adanac.zookeeper.virtualThreads";
+
+	private ThreadSupport() {
+	}
+
+	/**
+	 * @return factory of daemon threads named {@code name-N}
+	 */
+	static ThreadFactory threadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * @return executor running data listener callbacks
+	 */
+	static ExecutorService newListenerExecutor(String name, int threads) {
+		return Executors.newFixedThreadPool(threads, threadFactory(name));
+	}
+
+	/**
+	 * @return number of background shards to run for {@code threads} requested background threads
+	 */
+	static int backgroundShards(int threads) {
+		return threads;
+	}
+}
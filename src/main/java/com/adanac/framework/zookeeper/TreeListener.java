@@ -0,0 +1,12 @@
+package com.adanac.framework.zookeeper;
+
+/**
+ * Receives changes of the nodes mirrored by a {@link ZooKeeperTree}.
+ */
+public interface TreeListener {
+	public void nodeAdded(String path, byte[] data);
+
+	public void nodeUpdated(String path, byte[] oldData, byte[] newData);
+
+	public void nodeRemoved(String path);
+}
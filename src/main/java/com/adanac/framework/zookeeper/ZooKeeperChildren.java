@@ -0,0 +1,840 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adanac.framework.zookeeper.intf.BackoffStrategy;
+import com.adanac.framework.zookeeper.intf.Supplier;
+import com.adanac.framework.zookeeper.util.BackoffHelper;
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * Keeps the children of a zookeeper path and their data live. Only the data of added children is
+ * read when the children list changes, and changes are delivered to {@link ChildrenListener}s as
+ * incremental added/updated/removed events. All state changes happen on the background thread
+ * owning the parent path, so listeners see them in order. The {@link DataListener} is notified
+ * through the client's {@link ListenerDispatcher}, once per batch of child reads. A refresh only
+ * counts as loaded once every child read of its batch has been applied. When a detached session is
+ * resumed, only the stat of each child is read again to re-arm its watch, and its data only if it
+ * changed.
+ *
+ * @param <T> the type of data associated with each child
+ * @author adanac
+ * @version 1.0
+ */
+public class ZooKeeperChildren<T> implements DataCache<Map<String, T>> {
+
+	private static Logger logger = LoggerFactory.getLogger(ZooKeeperChildren.class);
+	private static final long CHILD_RETRY_INITIAL_BACKOFF_MS = 1000;
+	private static final long CHILD_RETRY_MAX_BACKOFF_MS = 60 * 1000;
+	private ZooKeeperClient client;
+	private final String parentPath;
+	private NodeDeserializer<T> deserializer;
+	private BackoffHelper backoffHelper;
+	// stateless once stopAtMax is false, so it is shared by the retries of the list and of all children
+	private final BackoffStrategy childBackoff = new TruncatedBinaryBackoff(CHILD_RETRY_INITIAL_BACKOFF_MS,
+			CHILD_RETRY_MAX_BACKOFF_MS);
+	private final ConcurrentHashMap<String, Long> childBackoffMs = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentHashMap<String, Child<T>> children = new ConcurrentHashMap<String, Child<T>>();
+	// names returned by the last getChildren, used to drop reads of children removed meanwhile
+	private volatile Set<String> childNames = Collections.emptySet();
+	private final List<ChildrenListener<T>> listeners = new CopyOnWriteArrayList<ChildrenListener<T>>();
+	private volatile DataListener<Map<String, T>> dataListener;
+	private final ListenerDispatcher.Channel<Map<String, T>> dataChannel;
+	// the map last handed to the data listener, guarded by this
+	private Map<String, T> publishedData;
+	private final Watcher childrenWatcher;
+	private final Watcher dataWatcher;
+	private final Supplier<Boolean, InterruptedException> loadTask;
+	// the same job is queued for every refresh, so that a full background lane can coalesce it
+	private final Runnable refreshJob;
+	private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+	// serializes the blocking reads of the children list outside the monitor, see watchChildren
+	private final ReentrantLock refreshLock = new ReentrantLock();
+	// set once the children list has been read, later background reads don't wait for the connection
+	private volatile boolean listed = false;
+	private volatile boolean destroyed = false;
+	private ResumableCommand<RuntimeException> expirationHandler;
+
+	public static <T> ZooKeeperChildren<T> create(ZooKeeperClient zkClient, String parentPath,
+			NodeDeserializer<T> deserializer) {
+		return new ZooKeeperChildren<T>(zkClient, parentPath, deserializer);
+	}
+
+	ZooKeeperChildren(final ZooKeeperClient zkClient, String path, NodeDeserializer<T> deserializer) {
+		if (zkClient == null)
+			throw new IllegalArgumentException();
+		if (path == null || "".equals(path.trim()))
+			throw new IllegalArgumentException();
+		if (deserializer == null)
+			throw new IllegalArgumentException();
+		this.client = zkClient;
+		this.parentPath = ZooKeeperUtils.normalizePath(path);
+		this.deserializer = deserializer;
+		backoffHelper = new BackoffHelper(zkClient.getRetryScheduler());
+		dataChannel = zkClient.getListenerDispatcher().newChannel(false);
+		childrenWatcher = new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				logger.debug("Children of " + parentPath + " ,event:" + event);
+				if (destroyed) {
+					logger.warn("Children of " + parentPath + " has been destroyed, will ignore event " + event);
+					return;
+				}
+				if (event.getState() == KeeperState.SyncConnected && (!EventType.None.equals(event.getType()))) {
+					addRefreshJob();
+				}
+			}
+		};
+		// one watcher shared by the data watches of all children
+		dataWatcher = new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				logger.debug("Child of " + parentPath + " ,event:" + event);
+				if (destroyed) {
+					return;
+				}
+				// deletions are picked up by the children watch
+				if (event.getState() == KeeperState.SyncConnected && EventType.NodeDataChanged.equals(event.getType())) {
+					String child = childName(event.getPath());
+					if (child != null) {
+						addChildRefreshJob(child);
+					}
+				}
+			}
+		};
+		loadTask = new Supplier<Boolean, InterruptedException>() {
+			@Override
+			public Boolean get() throws InterruptedException {
+				try {
+					return load();
+				} catch (KeeperException e) {
+					logger.info("Watch children of " + parentPath + " KeeperException", e);
+					return !ZooKeeperUtils.isRetryable(e);
+				} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+					logger.info("Watch children of " + parentPath + " occur ZooKeeperConnectionException", e);
+					return false;
+				}
+			}
+		};
+		refreshJob = new Runnable() {
+			@Override
+			public void run() {
+				refreshInBackground(null, 0);
+			}
+		};
+		expirationHandler = new ResumableCommand<RuntimeException>() {
+
+			@Override
+			public String toString() {
+				return "ExpirationHandler@" + hashCode() + " of children " + parentPath;
+			}
+
+			@Override
+			public void execute() {
+				addRefreshJob();
+			}
+
+			@Override
+			public void executeAsync(Runnable onComplete) {
+				// the session expired, every child is read again
+				rewatchAll(ReadMode.ALL, onComplete);
+			}
+
+			@Override
+			public void resumeAsync(Runnable onComplete) {
+				// the data is still what was read, only the watches have to be armed again
+				rewatchAll(ReadMode.CHANGED, onComplete);
+			}
+		};
+	}
+
+	/**
+	 * Loads the children and their data, and returns once every child read has been applied, so
+	 * that {@link #getData()} holds all children right after a successful sync. Must not be called
+	 * from a background job of the client.
+	 */
+	@Override
+	public void sync(boolean retryUntilSuccess) throws DataException {
+		client.registerExpirationHandler(parentPath, expirationHandler);
+		if (retryUntilSuccess) {
+			try {
+				backoffHelper.doUntilSuccess(loadTask);
+			} catch (InterruptedException e) {
+				logger.warn("Interrupted while trying to watch children of " + parentPath, e);
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			boolean loaded;
+			try {
+				loaded = load();
+			} catch (Exception ex) {
+				addRefreshJob();
+				throw new DataException(ex);
+			}
+			if (!loaded) {
+				addRefreshJob();
+				throw new DataException("Failed to read the data of some children of " + parentPath);
+			}
+		}
+	}
+
+	/**
+	 * @return an unmodifiable snapshot of the loaded children and their data, sorted by name
+	 */
+	@Override
+	public Map<String, T> getData() {
+		Map<String, T> snapshot = new TreeMap<String, T>();
+		for (Map.Entry<String, Child<T>> entry : children.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().data);
+		}
+		return Collections.unmodifiableMap(snapshot);
+	}
+
+	/**
+	 * @return the data of the given child, or null if it isn't loaded
+	 */
+	public T getChildData(String child) {
+		Child<T> c = children.get(child);
+		return c == null ? null : c.data;
+	}
+
+	public String getParentPath() {
+		return parentPath;
+	}
+
+	@Override
+	public void monitor(final Map<String, T> currentExpectData, final DataListener<Map<String, T>> dataListener) {
+		client.registerExpirationHandler(parentPath, expirationHandler);
+		client.addBackgroundJob(parentPath, new Runnable() {
+			@Override
+			public void run() {
+				// first delivered once the children and their data have been applied
+				refreshInBackground(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (ZooKeeperChildren.this) {
+							Map<String, T> current = getData();
+							publishedData = current;
+							ZooKeeperChildren.this.dataListener = dataListener;
+							if (!current.equals(currentExpectData)) {
+								dataChannel.dispatch(dataListener, currentExpectData, current);
+							}
+						}
+					}
+				}, 0);
+			}
+		});
+	}
+
+	public void addChildrenListener(ChildrenListener<T> listener) {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		listeners.add(listener);
+	}
+
+	public void removeChildrenListener(ChildrenListener<T> listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void destroy() {
+		if (this.expirationHandler != null) {
+			client.unRegisterExpirationHandler(this.expirationHandler);
+		}
+		this.destroyed = true;
+		this.children.clear();
+		this.childNames = Collections.emptySet();
+		this.childBackoffMs.clear();
+		this.listeners.clear();
+		this.client = null;
+		this.deserializer = null;
+		this.backoffHelper = null;
+		synchronized (this) {
+			this.dataListener = null;
+			this.publishedData = null;
+		}
+	}
+
+	private String childName(String path) {
+		if (path == null || !path.startsWith(parentPath)) {
+			return null;
+		}
+		String child = "/".equals(parentPath) ? path.substring(1) : path.substring(parentPath.length() + 1);
+		return child.indexOf('/') < 0 ? child : null;
+	}
+
+	private String childPath(String child) {
+		return "/".equals(parentPath) ? "/" + child : parentPath + "/" + child;
+	}
+
+	private void addRefreshJob() {
+		if (destroyed) {
+			logger.warn("Children of " + parentPath + " has been destroyed.");
+			return;
+		}
+		if (!refreshPending.compareAndSet(false, true)) {
+			return;
+		}
+		client.addBackgroundJob(parentPath, refreshJob);
+	}
+
+	private void addChildRefreshJob(String child) {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			return;
+		}
+		zkClient.addBackgroundJob(parentPath, new ChildRefresh(child));
+	}
+
+	/**
+	 * Re-arms the children watch and the data watch of every child on a new handle.
+	 */
+	private void rewatchAll(final ReadMode mode, final Runnable onComplete) {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			onComplete.run();
+			return;
+		}
+		zkClient.addBackgroundJob(parentPath, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					watchChildren(mode, false, new BatchCallback() {
+						@Override
+						public void completed(Set<String> failed) {
+							// these keep their last data until their own retry succeeds
+							for (String child : failed) {
+								retryChildLater(child);
+							}
+							onComplete.run();
+						}
+					});
+				} catch (Exception e) {
+					logger.info("Re-watch children of " + parentPath + " failed", e);
+					if (e instanceof InterruptedException) {
+						Thread.currentThread().interrupt();
+					}
+					addRefreshJob();
+					onComplete.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the children list and the data of the added children, and waits until every started read
+	 * has been applied.
+	 *
+	 * @return whether every read has been applied
+	 */
+	private boolean load() throws InterruptedException, KeeperException, ZooKeeperClient.ZooKeeperConnectionException {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			logger.warn("Children of " + parentPath + " has been destroyed.");
+			return true;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean loaded = new AtomicBoolean(false);
+		watchChildren(ReadMode.ADDED, true, new BatchCallback() {
+			@Override
+			public void completed(Set<String> failed) {
+				loaded.set(failed.isEmpty());
+				done.countDown();
+			}
+		});
+		// every read is answered, even on connection loss; the bound only covers a client destroyed
+		// before the results were applied
+		return done.await(zkClient.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS) && loaded.get();
+	}
+
+	/**
+	 * Same as {@link #load()} but never waits on the background thread: the reads complete
+	 * asynchronously and a failed refresh is retried with backoff until every read has been applied.
+	 * Only the first read of the children list waits for the session to be connected.
+	 *
+	 * @param onLoaded      run on the background thread of the parent once loaded, may be null
+	 * @param lastBackoffMs backoff waited before this attempt, 0 for the first one
+	 */
+	private void refreshInBackground(final Runnable onLoaded, final long lastBackoffMs) {
+		if (destroyed) {
+			logger.warn("Children of " + parentPath + " has been destroyed.");
+			return;
+		}
+		// events arriving from now on are not covered by this read and must queue again
+		refreshPending.set(false);
+		try {
+			watchChildren(ReadMode.ADDED, !listed, new BatchCallback() {
+				@Override
+				public void completed(Set<String> failed) {
+					if (failed.isEmpty()) {
+						if (onLoaded != null) {
+							onLoaded.run();
+						}
+					} else {
+						refreshLater(onLoaded, lastBackoffMs);
+					}
+				}
+			});
+			return;
+		} catch (KeeperException e) {
+			logger.info("Watch children of " + parentPath + " KeeperException", e);
+			if (!ZooKeeperUtils.isRetryable(e)) {
+				if (onLoaded != null) {
+					onLoaded.run();
+				}
+				return;
+			}
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			logger.info("Watch children of " + parentPath + " occur ZooKeeperConnectionException", e);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while trying to watch children of " + parentPath, e);
+			Thread.currentThread().interrupt();
+			return;
+		}
+		refreshLater(onLoaded, lastBackoffMs);
+	}
+
+	private void refreshLater(final Runnable onLoaded, long lastBackoffMs) {
+		final ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			return;
+		}
+		// a refresh queued meanwhile covers this one, unless someone waits for this load
+		if (!refreshPending.compareAndSet(false, true) && onLoaded == null) {
+			return;
+		}
+		final long backoffMs = childBackoff.calculateBackoffMs(lastBackoffMs);
+		logger.info("Retry children of " + parentPath + " in " + backoffMs + "ms");
+		try {
+			zkClient.getRetryScheduler().schedule(new Runnable() {
+				@Override
+				public void run() {
+					zkClient.addBackgroundJob(parentPath, new Runnable() {
+						@Override
+						public void run() {
+							refreshInBackground(onLoaded, backoffMs);
+						}
+					});
+				}
+			}, backoffMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.warn("Retry scheduler has been shut down, giving up children of " + parentPath, e);
+		}
+	}
+
+	/**
+	 * Reads the children list, drops removed children and starts reads of the added ones. The data
+	 * listener is notified once, after all the started reads have been applied. Children whose read
+	 * failed with a retryable error are handed to {@code onComplete} rather than retried.
+	 *
+	 * @param mode              which children are read
+	 * @param waitForConnection whether to wait up to the connection timeout for the session to be
+	 *                          connected, background refreshes only do so for the first read
+	 * @param onComplete        run once every started child read has been applied, may be null
+	 */
+	private void watchChildren(ReadMode mode, boolean waitForConnection, BatchCallback onComplete)
+			throws InterruptedException, KeeperException, ZooKeeperClient.ZooKeeperConnectionException {
+		Map<String, T> removed = new LinkedHashMap<String, T>();
+		Set<String> toRead = new HashSet<String>();
+		// the blocking read holds a lock rather than the monitor, so that a virtual thread waiting
+		// for the connection doesn't pin its carrier nor hold up the publication of child data
+		refreshLock.lockInterruptibly();
+		try {
+			ZooKeeperClient zkClient = client;
+			if (destroyed || zkClient == null) {
+				logger.warn("Children of " + parentPath + " has been destroyed.");
+				if (onComplete != null) {
+					onComplete.completed(Collections.<String> emptySet());
+				}
+				return;
+			}
+			List<String> names;
+			try {
+				ZooKeeper zk = waitForConnection ? zkClient.getConnected(parentPath) : zkClient.get(parentPath);
+				names = zk.getChildren(parentPath, childrenWatcher);
+			} catch (KeeperException.NoNodeException e) {
+				// wait for the parent to be created
+				names = Collections.emptyList();
+				zkClient.get(parentPath).exists(parentPath, childrenWatcher);
+			}
+			synchronized (this) {
+				// left as is if destroyed during the read, the callback then completes an empty batch
+				if (!destroyed) {
+					Set<String> current = new HashSet<String>(names);
+					childNames = current;
+					listed = true;
+					for (String name : children.keySet()) {
+						if (!current.contains(name)) {
+							Child<T> child = children.remove(name);
+							childBackoffMs.remove(name);
+							if (child != null) {
+								removed.put(name, child.data);
+							}
+						}
+					}
+					for (String name : current) {
+						if (mode != ReadMode.ADDED || !children.containsKey(name)) {
+							toRead.add(name);
+						}
+					}
+				}
+			}
+		} finally {
+			refreshLock.unlock();
+		}
+		for (Map.Entry<String, T> entry : removed.entrySet()) {
+			fireRemoved(entry.getKey(), entry.getValue());
+		}
+		if (toRead.isEmpty()) {
+			if (!removed.isEmpty()) {
+				fireDataChanged();
+			}
+			if (onComplete != null) {
+				onComplete.completed(Collections.<String> emptySet());
+			}
+			return;
+		}
+		Batch batch = new Batch(toRead.size(), !removed.isEmpty(), onComplete);
+		for (String name : toRead) {
+			if (mode == ReadMode.CHANGED) {
+				rewatchChildAsync(name, batch);
+			} else {
+				watchChildAsync(name, batch);
+			}
+		}
+	}
+
+	/**
+	 * Re-arms the data watch of a child with its stat, reading its data only if it changed since it
+	 * was read.
+	 */
+	private void rewatchChildAsync(final String child, final Batch batch) {
+		final ZooKeeperClient zkClient = client;
+		final Child<T> known = children.get(child);
+		if (destroyed || zkClient == null || known == null) {
+			watchChildAsync(child, batch);
+			return;
+		}
+		try {
+			zkClient.get(parentPath).exists(childPath(child), dataWatcher, new AsyncCallback.StatCallback() {
+				@Override
+				public void processResult(int rc, String path, Object ctx, Stat stat) {
+					if (rc == KeeperException.Code.OK.intValue() && stat.getMzxid() == known.mzxid) {
+						zkClient.addBackgroundJob(parentPath, new Runnable() {
+							@Override
+							public void run() {
+								batch.childDone(false);
+							}
+						});
+						return;
+					}
+					// changed, deleted or failed, the data read reports it like any other
+					watchChildAsync(child, batch);
+				}
+			}, null);
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			logger.info("Watch child " + child + " of " + parentPath + " occur ZooKeeperConnectionException", e);
+			childFailed(child, batch);
+			batch.childDone(false);
+		}
+	}
+
+	/**
+	 * @param batch the reads started together with this one, null for a single child refresh
+	 */
+	private void watchChildAsync(final String child, final Batch batch) {
+		final ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			if (batch != null) {
+				batch.childDone(false);
+			}
+			return;
+		}
+		try {
+			zkClient.get(parentPath).getData(childPath(child), dataWatcher, new AsyncCallback.DataCallback() {
+				@Override
+				public void processResult(final int rc, String path, Object ctx, final byte[] data,
+						final Stat stat) {
+					zkClient.addBackgroundJob(parentPath, new Runnable() {
+						@Override
+						public void run() {
+							boolean changed = false;
+							try {
+								changed = applyChildData(child, rc, data, stat, batch);
+							} finally {
+								if (batch != null) {
+									batch.childDone(changed);
+								} else if (changed) {
+									fireDataChanged();
+								}
+							}
+						}
+					});
+				}
+			}, null);
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			logger.info("Watch child " + child + " of " + parentPath + " occur ZooKeeperConnectionException", e);
+			childFailed(child, batch);
+			if (batch != null) {
+				batch.childDone(false);
+			}
+		}
+	}
+
+	/**
+	 * @param batch the batch of the read, null for a single child refresh
+	 * @return whether the data of the child changed
+	 */
+	private boolean applyChildData(String child, int rc, byte[] data, Stat stat, Batch batch) {
+		Child<T> old;
+		T newData;
+		synchronized (this) {
+			if (destroyed || !childNames.contains(child)) {
+				return false;
+			}
+			KeeperException.Code code = KeeperException.Code.get(rc);
+			if (code != KeeperException.Code.OK) {
+				if (code == KeeperException.Code.NONODE) {
+					// a removed child is dropped by the children watch
+					childBackoffMs.remove(child);
+					return false;
+				}
+				KeeperException e = KeeperException.create(code, childPath(child));
+				logger.info("Watch child " + child + " of " + parentPath + " KeeperException", e);
+				if (ZooKeeperUtils.isRetryable(e)) {
+					childFailed(child, batch);
+				}
+				return false;
+			}
+			childBackoffMs.remove(child);
+			old = children.get(child);
+			if (old != null && old.mzxid == stat.getMzxid()) {
+				return false;
+			}
+			newData = deserializer.deserialize(data);
+			children.put(child, new Child<T>(newData, stat.getMzxid()));
+		}
+		if (old == null) {
+			fireAdded(child, newData);
+			return true;
+		}
+		if (!_equals(old.data, newData)) {
+			fireUpdated(child, old.data, newData);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A failed read of a batch is reported to the owner of the batch, which decides how to retry.
+	 */
+	private void childFailed(String child, Batch batch) {
+		if (batch != null) {
+			batch.failed.add(child);
+		} else {
+			retryChildLater(child);
+		}
+	}
+
+	private void retryChildLater(final String child) {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			return;
+		}
+		// each child backs off on its own, so an outage doesn't turn into a retry storm
+		Long lastBackoffMs = childBackoffMs.get(child);
+		long backoffMs = childBackoff.calculateBackoffMs(lastBackoffMs == null ? 0 : lastBackoffMs);
+		childBackoffMs.put(child, backoffMs);
+		logger.info("Retry child " + child + " of " + parentPath + " in " + backoffMs + "ms");
+		try {
+			zkClient.getRetryScheduler().schedule(new Runnable() {
+				@Override
+				public void run() {
+					addChildRefreshJob(child);
+				}
+			}, backoffMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.warn("Retry scheduler has been shut down, giving up child " + child, e);
+		}
+	}
+
+	private void fireAdded(String child, T data) {
+		for (ChildrenListener<T> listener : listeners) {
+			try {
+				listener.childAdded(child, data);
+			} catch (Throwable ex) {
+				logger.error("Exception occur when notify child added " + child, ex);
+			}
+		}
+	}
+
+	private void fireUpdated(String child, T oldData, T newData) {
+		for (ChildrenListener<T> listener : listeners) {
+			try {
+				listener.childUpdated(child, oldData, newData);
+			} catch (Throwable ex) {
+				logger.error("Exception occur when notify child updated " + child, ex);
+			}
+		}
+	}
+
+	private void fireRemoved(String child, T oldData) {
+		for (ChildrenListener<T> listener : listeners) {
+			try {
+				listener.childRemoved(child, oldData);
+			} catch (Throwable ex) {
+				logger.error("Exception occur when notify child removed " + child, ex);
+			}
+		}
+	}
+
+	/**
+	 * Hands the current children to the data listener if they differ from what it saw last. The map
+	 * is built once and delivered on the listener dispatcher, never on the calling thread.
+	 */
+	private synchronized void fireDataChanged() {
+		DataListener<Map<String, T>> listener = dataListener;
+		if (listener == null) {
+			return;
+		}
+		Map<String, T> newData = getData();
+		if (newData.equals(publishedData)) {
+			return;
+		}
+		Map<String, T> oldData = publishedData;
+		publishedData = newData;
+		dataChannel.dispatch(listener, oldData, newData);
+	}
+
+	private boolean _equals(T data1, T data2) {
+		return data1 == null ? data2 == null : data1.equals(data2);
+	}
+
+	/**
+	 * Children whose data a refresh reads.
+	 */
+	private enum ReadMode {
+		/**
+		 * Only children not loaded yet.
+		 */
+		ADDED,
+		/**
+		 * Every child.
+		 */
+		ALL,
+		/**
+		 * Every child whose stat shows it changed since it was read, and the children not loaded yet.
+		 */
+		CHANGED
+	}
+
+	/**
+	 * Receives the outcome of a batch of child reads.
+	 */
+	private interface BatchCallback {
+		/**
+		 * @param failed children whose read failed with a retryable error, empty if all were applied
+		 */
+		void completed(Set<String> failed);
+	}
+
+	/**
+	 * Child reads started together, the data listener is notified once all of them are applied.
+	 */
+	private class Batch {
+		private final AtomicInteger remaining;
+		private final AtomicBoolean changed;
+		private final BatchCallback onComplete;
+		final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+
+		Batch(int reads, boolean changed, BatchCallback onComplete) {
+			this.remaining = new AtomicInteger(reads);
+			this.changed = new AtomicBoolean(changed);
+			this.onComplete = onComplete;
+		}
+
+		void childDone(boolean childChanged) {
+			if (childChanged) {
+				changed.set(true);
+			}
+			if (remaining.decrementAndGet() == 0) {
+				if (changed.get()) {
+					fireDataChanged();
+				}
+				if (onComplete != null) {
+					onComplete.completed(new HashSet<String>(failed));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the data of a child again. Refreshes of the same child are equal, so that a full
+	 * background lane can coalesce them.
+	 */
+	private class ChildRefresh implements Runnable {
+		private final String child;
+
+		ChildRefresh(String child) {
+			this.child = child;
+		}
+
+		@Override
+		public void run() {
+			watchChildAsync(child, null);
+		}
+
+		private ZooKeeperChildren<T> owner() {
+			return ZooKeeperChildren.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return child.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ZooKeeperChildren.ChildRefresh)) {
+				return false;
+			}
+			ZooKeeperChildren<?>.ChildRefresh other = (ZooKeeperChildren<?>.ChildRefresh) obj;
+			return owner() == other.owner() && child.equals(other.child);
+		}
+	}
+
+	private static class Child<T> {
+		final T data;
+		final long mzxid;
+
+		Child(T data, long mzxid) {
+			this.data = data;
+			this.mzxid = mzxid;
+		}
+	}
+}
@@ -1,11 +1,20 @@
 package com.adanac.framework.zookeeper;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -14,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adanac.framework.statistics.VersionStatistics;
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
 
 /**
  * zk 客户端
@@ -33,6 +43,10 @@ public class ZooKeeperClient {
 			super(cause);
 		}
 
+		public ZooKeeperConnectionException(String message) {
+			super(message);
+		}
+
 		public ZooKeeperConnectionException(String message, Throwable cause) {
 			super(message, cause);
 		}
@@ -91,44 +105,87 @@ public class ZooKeeperClient {
 	private static Logger logger = LoggerFactory.getLogger(ZooKeeperClient.class);
 	private static ConcurrentHashMap<String, ZooKeeperClient> clients = new ConcurrentHashMap<String, ZooKeeperClient>();
 	private static final int DEFAULT_ZK_SESSION_TIMEOUT = 60000;
+	private static final int DEFAULT_BACKGROUND_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int DEFAULT_RECOVERY_WINDOW = 256;
+	private static final long DEFAULT_CONNECTION_TIMEOUT_MS = 15000;
 	private final int sessionTimeoutMs;
 	private final Credentials credentials;
 	private final String zooKeeperServers;
-	private volatile ZooKeeper zooKeeper;
-	private final Set<Command<?>> expirationHandlers = new CopyOnWriteArraySet<Command<?>>();
-	private final BlockingQueue<Runnable> jobs = new LinkedBlockingQueue<Runnable>();
-	private volatile boolean destroyed = false;
-	private Thread backgroundProcessor = null;
-
-	public ZooKeeperClient(int sessionTimeout, Credentials credentials, String zooKeeperServers) {
-		if (sessionTimeout == 0 || credentials == null || zooKeeperServers == null)
+	private final Session[] sessions;
+	// nodes shared by path and deserializer, guarded by itself for creation and removal
+	private final ConcurrentHashMap<NodeKey, SharedNode<?>> nodes = new ConcurrentHashMap<NodeKey, SharedNode<?>>();
+	private final BackgroundJobExecutor backgroundExecutor;
+	private final ScheduledExecutorService retryScheduler;
+	private final ExecutorService listenerExecutor;
+	private final ListenerDispatcher listenerDispatcher;
+	private final List<ConnectionStateListener> stateListeners = new CopyOnWriteArrayList<ConnectionStateListener>();
+	// delivers state changes in order and off the zookeeper event threads
+	private final ExecutorService stateExecutor;
+	private final LatencyHistogram disconnectHistogram = new LatencyHistogram();
+	private final LatencyHistogram reconnectHistogram = new LatencyHistogram();
+	private final LatencyHistogram resyncHistogram = new LatencyHistogram();
+	private volatile int recoveryWindow = DEFAULT_RECOVERY_WINDOW;
+	private volatile long connectionTimeoutMs = DEFAULT_CONNECTION_TIMEOUT_MS;
+	private volatile boolean canBeReadOnly = false;
+	private volatile long lastRecoveryTimeMs = -1;
+
+	/**
+	 * @param sessionTimeout    zookeeper session timeout in milliseconds
+	 * @param credentials       credentials used to authenticate every new session
+	 * @param zooKeeperServers  zookeeper connect string
+	 * @param backgroundThreads number of background threads; jobs of the same path always run on the
+	 *                          same thread
+	 * @param sessionCount      number of zookeeper sessions; reads and watches of the same path always
+	 *                          use the same session
+	 */
+	public ZooKeeperClient(int sessionTimeout, Credentials credentials, String zooKeeperServers,
+			int backgroundThreads, int sessionCount) {
+		if (sessionTimeout == 0 || credentials == null || zooKeeperServers == null || backgroundThreads <= 0
+				|| sessionCount <= 0)
 			throw new IllegalArgumentException();
-		// use dedicated thread to handler biz watcher,
+		sessions = new Session[sessionCount];
+		sessions[0] = new Session(0, watcher);
+		for (int i = 1; i < sessionCount; i++) {
+			sessions[i] = new Session(i, newSessionWatcher(i));
+		}
+		// use dedicated threads to handler biz watcher,
 		// let zookeeper event thread non-block(prevent thread is occupied, can
 		// not handler session expired).
-		backgroundProcessor = new Thread("ZookeeperClient-backgroundProcessor") {
+		backgroundExecutor = new BackgroundJobExecutor("ZookeeperClient-backgroundProcessor",
+				ThreadSupport.backgroundShards(backgroundThreads));
+		// only waits out backoffs, retries themselves run on the background threads. Handing them
+		// over never waits either, a full lane must not hold back the retries of other shards.
+		final ThreadFactory retryThreads = ThreadSupport.threadFactory("ZookeeperClient-retryScheduler");
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
 			@Override
-			public void run() {
-				while (true) {
-					if (destroyed) {
-						break;
-					}
-					try {
-						Runnable runnable = jobs.take();
-						runnable.run();
-					} catch (Throwable ex) {
-						logger.error("Exception occur when process job.", ex);
+			public Thread newThread(final Runnable r) {
+				return retryThreads.newThread(new Runnable() {
+					@Override
+					public void run() {
+						BackgroundJobExecutor.neverBlockCurrentThread();
+						r.run();
 					}
-				}
+				});
 			}
-		};
-		backgroundProcessor.setDaemon(true);
-		backgroundProcessor.start();
+		});
+		// data listeners run apart from the background threads, a slow listener must not delay refreshes
+		listenerExecutor = ThreadSupport.newListenerExecutor("ZookeeperClient-listenerDispatcher", backgroundThreads);
+		listenerDispatcher = new ListenerDispatcher(listenerExecutor);
+		stateExecutor = Executors.newSingleThreadExecutor(ThreadSupport.threadFactory("ZookeeperClient-connectionState"));
 		this.sessionTimeoutMs = sessionTimeout;
 		this.credentials = credentials;
 		this.zooKeeperServers = zooKeeperServers;
 	}
 
+	public ZooKeeperClient(int sessionTimeout, Credentials credentials, String zooKeeperServers,
+			int backgroundThreads) {
+		this(sessionTimeout, credentials, zooKeeperServers, backgroundThreads, 1);
+	}
+
+	public ZooKeeperClient(int sessionTimeout, Credentials credentials, String zooKeeperServers) {
+		this(sessionTimeout, credentials, zooKeeperServers, DEFAULT_BACKGROUND_THREADS);
+	}
+
 	public ZooKeeperClient(int sessionTimeout, String zooKeeperServers) {
 		this(sessionTimeout, Credentials.NONE, zooKeeperServers);
 	}
@@ -142,28 +199,64 @@ public class ZooKeeperClient {
 	}
 
 	public static ZooKeeperClient getInstance(String zooKeeperServers) {
-		ZooKeeperClient client = new ZooKeeperClient(zooKeeperServers);
-		ZooKeeperClient existed = clients.putIfAbsent(zooKeeperServers, client);
-		return existed != null ? existed : client;
+		return getInstance(DEFAULT_ZK_SESSION_TIMEOUT, Credentials.NONE, zooKeeperServers);
 	}
 
 	public static ZooKeeperClient getInstance(Credentials credentials, String zooKeeperServers) {
-		ZooKeeperClient client = new ZooKeeperClient(credentials, zooKeeperServers);
-		ZooKeeperClient existed = clients.putIfAbsent(zooKeeperServers, client);
-		return existed != null ? existed : client;
+		return getInstance(DEFAULT_ZK_SESSION_TIMEOUT, credentials, zooKeeperServers);
+	}
+
+	/**
+	 * Returns the shared client of the given servers, credentials and session timeout. A client, and
+	 * its threads, is only constructed the first time a combination is asked for.
+	 */
+	public static ZooKeeperClient getInstance(int sessionTimeout, Credentials credentials, String zooKeeperServers) {
+		if (credentials == null || zooKeeperServers == null)
+			throw new IllegalArgumentException();
+		String key = instanceKey(sessionTimeout, credentials, zooKeeperServers);
+		ZooKeeperClient client = clients.get(key);
+		if (client != null) {
+			return client;
+		}
+		synchronized (clients) {
+			client = clients.get(key);
+			if (client == null) {
+				client = new ZooKeeperClient(sessionTimeout, credentials, zooKeeperServers);
+				clients.put(key, client);
+			}
+			return client;
+		}
+	}
+
+	private static String instanceKey(int sessionTimeout, Credentials credentials, String zooKeeperServers) {
+		StringBuilder key = new StringBuilder(zooKeeperServers).append('|').append(sessionTimeout).append('|');
+		if (credentials.scheme() != null) {
+			key.append(credentials.scheme());
+		}
+		key.append('|');
+		byte[] authToken = credentials.authToken();
+		if (authToken != null) {
+			for (byte b : authToken) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+		}
+		return key.toString();
 	}
 
 	public static void shutdown() {
-		for (ZooKeeperClient client : clients.values()) {
-			client.destroy();
+		synchronized (clients) {
+			for (ZooKeeperClient client : clients.values()) {
+				client.destroy();
+			}
+			clients.clear();
 		}
 	}
 
 	public void destroy() {
-		destroyed = true;
-		if (backgroundProcessor != null) {
-			backgroundProcessor.interrupt();
-		}
+		backgroundExecutor.destroy();
+		retryScheduler.shutdownNow();
+		listenerExecutor.shutdown();
+		stateExecutor.shutdown();
 		close();
 	}
 
@@ -172,75 +265,642 @@ public class ZooKeeperClient {
 		return (scheme != null && !"".equals(scheme.trim())) && (credentials.authToken() != null);
 	}
 
-	public Watcher watcher = new Watcher() {
-		@Override
-		public void process(WatchedEvent event) {
-			logger.debug("ZookeeperClient watcher, event:" + event);
-			switch (event.getType()) {
-			case None:
-				switch (event.getState()) {
-				case SyncConnected:
-					logger.info("Zookeeper syncConnected. Event: " + event);
-					break;
-				case Disconnected:
-					logger.info("Zookeeper Disconnected. Event: " + event);
-					break;
-				case Expired:
-					logger.info("Zookeeper session expired. Event: " + event);
-					close();
-					addBackgroundJob(new Runnable() {
-						@Override
-						public void run() {
-							executeExpirationHandlers();
+	/**
+	 * The default watcher of the first session.
+	 */
+	public Watcher watcher = newSessionWatcher(0);
+
+	private Watcher newSessionWatcher(final int index) {
+		return new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				// runs on the event thread of the handle, which then delivers every watch and callback
+				// of the session; it must never wait for room in a full background lane
+				BackgroundJobExecutor.neverBlockCurrentThread();
+				logger.debug("ZookeeperClient watcher of session " + index + ", event:" + event);
+				switch (event.getType()) {
+				case None:
+					switch (event.getState()) {
+					case SyncConnected:
+						logger.info("Zookeeper session " + index + " syncConnected. Event: " + event);
+						sessions[index].connected.countDown();
+						connected(sessions[index], false);
+						resumed(sessions[index]);
+						break;
+					case ConnectedReadOnly:
+						// reads, and so node refreshes, keep working; zookeeper moves the session
+						// back to a read-write server by itself once one is reachable
+						logger.info("Zookeeper session " + index + " connectedReadOnly. Event: " + event);
+						sessions[index].connected.countDown();
+						connected(sessions[index], true);
+						resumed(sessions[index]);
+						break;
+					case Disconnected:
+						logger.info("Zookeeper session " + index + " Disconnected. Event: " + event);
+						sessions[index].resetConnected();
+						if (sessions[index].disconnectedAtMs < 0) {
+							sessions[index].disconnectedAtMs = System.currentTimeMillis();
 						}
-					});
-					break;
+						stateChanged(sessions[index], ConnectionState.SUSPENDED);
+						break;
+					case Expired:
+						logger.info("Zookeeper session " + index + " expired. Event: " + event);
+						final Session session = sessions[index];
+						final long expiredAtMs = System.currentTimeMillis();
+						session.expiredAtMs = expiredAtMs;
+						stateChanged(session, ConnectionState.EXPIRED);
+						close(session);
+						// recovery overtakes the refreshes already queued
+						addBackgroundJob(null, new Runnable() {
+							@Override
+							public void run() {
+								executeExpirationHandlers(session, expiredAtMs);
+							}
+						}, BackgroundJobExecutor.Priority.HIGH);
+						break;
+					}
 				}
 			}
+		};
+	}
+
+	private void connected(Session session, boolean readOnly) {
+		long now = System.currentTimeMillis();
+		boolean resumed = session.disconnectedAtMs >= 0 || session.expiredAtMs >= 0
+				|| session.state == ConnectionState.READ_ONLY;
+		if (session.disconnectedAtMs >= 0) {
+			disconnectHistogram.record(now - session.disconnectedAtMs);
+			session.disconnectedAtMs = -1;
+		}
+		if (session.expiredAtMs >= 0) {
+			reconnectHistogram.record(now - session.expiredAtMs);
+			session.expiredAtMs = -1;
+		}
+		if (readOnly) {
+			stateChanged(session, ConnectionState.READ_ONLY);
+		} else {
+			stateChanged(session, resumed ? ConnectionState.RECONNECTED : ConnectionState.CONNECTED);
+		}
+	}
+
+	/**
+	 * Re-arms the watches of a session resumed by a new handle: the session survived, but its
+	 * watches were registered through the detached handle. {@link ResumableCommand} handlers only
+	 * read again what changed meanwhile.
+	 */
+	private void resumed(final Session session) {
+		if (!session.resumePending) {
+			return;
 		}
-	};
+		session.resumePending = false;
+		addBackgroundJob(null, new Runnable() {
+			@Override
+			public void run() {
+				new ExpirationRecovery(session.expirationHandlers.iterator(), recoveryWindow, -1).pump();
+			}
+		}, BackgroundJobExecutor.Priority.HIGH);
+	}
 
-	public synchronized ZooKeeper get() throws ZooKeeperConnectionException {
-		if (zooKeeper != null) {
-			return zooKeeper;
+	private void stateChanged(final Session session, final ConnectionState state) {
+		session.state = state;
+		if (stateListeners.isEmpty()) {
+			return;
 		}
 		try {
-			zooKeeper = new ZooKeeper(zooKeeperServers, sessionTimeoutMs, watcher);
-			credentials.authenticate(zooKeeper);
-			return zooKeeper;
-		} catch (IOException ex) {
-			throw new ZooKeeperConnectionException(ex);
+			stateExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (ConnectionStateListener listener : stateListeners) {
+						try {
+							listener.stateChanged(ZooKeeperClient.this, session.index, state);
+						} catch (Throwable ex) {
+							logger.error("Exception occur when notify connection state " + state, ex);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.warn("Client has been destroyed, drop connection state " + state);
 		}
 	}
 
-	public synchronized void close() {
-		if (zooKeeper != null) {
+	public void addConnectionStateListener(ConnectionStateListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		stateListeners.add(listener);
+	}
+
+	public void removeConnectionStateListener(ConnectionStateListener listener) {
+		stateListeners.remove(listener);
+	}
+
+	/**
+	 * @return the last state of the first session, null if it never connected
+	 */
+	public ConnectionState getConnectionState() {
+		return sessions[0].state;
+	}
+
+	/**
+	 * @return the last state of the given session, null if it never connected
+	 */
+	public ConnectionState getConnectionState(int session) {
+		return sessions[session].state;
+	}
+
+	/**
+	 * @return how long connections stayed lost, from disconnect until connected again
+	 */
+	public LatencyHistogram getDisconnectHistogram() {
+		return disconnectHistogram;
+	}
+
+	/**
+	 * @return how long it took from a session expiration until its replacement connected
+	 */
+	public LatencyHistogram getReconnectHistogram() {
+		return reconnectHistogram;
+	}
+
+	/**
+	 * @return how long it took from a session expiration until every expiration handler completed
+	 */
+	public LatencyHistogram getResyncHistogram() {
+		return resyncHistogram;
+	}
+
+	/**
+	 * @return the handle of the first session, connecting it if needed
+	 */
+	public ZooKeeper get() throws ZooKeeperConnectionException {
+		return get(sessions[0]);
+	}
+
+	/**
+	 * Returns the handle of the session that {@code path} is routed to. Watches must always be set
+	 * through the session of their path so that they are re-armed by the matching expiration
+	 * handlers.
+	 */
+	public ZooKeeper get(String path) throws ZooKeeperConnectionException {
+		return get(sessions[sessionOf(path)]);
+	}
+
+	/**
+	 * Same as {@link #get()} but waits until the session is connected, so that the first operations
+	 * don't fail with a connection loss.
+	 *
+	 * @throws ZooKeeperConnectionException if the session isn't connected within {@code timeout}
+	 */
+	public ZooKeeper get(long timeout, TimeUnit unit) throws ZooKeeperConnectionException, InterruptedException {
+		return get(sessions[0], timeout, unit);
+	}
+
+	/**
+	 * Same as {@link #get(String)} but waits until the session is connected.
+	 *
+	 * @throws ZooKeeperConnectionException if the session isn't connected within {@code timeout}
+	 */
+	public ZooKeeper get(String path, long timeout, TimeUnit unit)
+			throws ZooKeeperConnectionException, InterruptedException {
+		return get(sessions[sessionOf(path)], timeout, unit);
+	}
+
+	/**
+	 * Same as {@link #get(String)} but waits at most the configured connection timeout until the
+	 * session is connected.
+	 */
+	public ZooKeeper getConnected(String path) throws ZooKeeperConnectionException, InterruptedException {
+		return get(path, connectionTimeoutMs, TimeUnit.MILLISECONDS);
+	}
+
+	private ZooKeeper get(Session session, long timeout, TimeUnit unit)
+			throws ZooKeeperConnectionException, InterruptedException {
+		ZooKeeper zk = get(session);
+		if (!session.connected.await(timeout, unit)) {
+			throw new ZooKeeperConnectionException("Timed out after " + unit.toMillis(timeout)
+					+ "ms waiting for session " + session.index + " to connect to " + zooKeeperServers);
+		}
+		return zk;
+	}
+
+	/**
+	 * Sets how long {@link #getConnected(String)} waits for the session to connect.
+	 */
+	public void setConnectionTimeoutMs(long connectionTimeoutMs) {
+		if (connectionTimeoutMs <= 0)
+			throw new IllegalArgumentException();
+		this.connectionTimeoutMs = connectionTimeoutMs;
+	}
+
+	public long getConnectionTimeoutMs() {
+		return connectionTimeoutMs;
+	}
+
+	/**
+	 * Allows sessions created from now on to connect to a server partitioned from the quorum and
+	 * serve reads only, so that caches keep refreshing while writes fail with
+	 * {@link org.apache.zookeeper.KeeperException.NotReadOnlyException}. Servers must run with
+	 * {@code readonlymode.enabled=true}.
+	 */
+	public void setCanBeReadOnly(boolean canBeReadOnly) {
+		this.canBeReadOnly = canBeReadOnly;
+	}
+
+	public boolean isCanBeReadOnly() {
+		return canBeReadOnly;
+	}
+
+	private ZooKeeper get(Session session) throws ZooKeeperConnectionException {
+		// fast path without locking, the monitor is only needed to (re)create the handle
+		ZooKeeper zk = session.zooKeeper;
+		if (zk != null) {
+			return zk;
+		}
+		synchronized (session) {
+			if (session.zooKeeper != null) {
+				return session.zooKeeper;
+			}
 			try {
-				zooKeeper.close();
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				logger.warn("Interrupted trying to close zooKeeper");
-			} finally {
-				zooKeeper = null;
-				logger.info("Zookeeper has been closed.");
+				// events of the new handle may arrive before the constructor returns
+				session.resetConnected();
+				if (session.resumeSessionId != 0) {
+					logger.info("Resuming zookeeper session " + session.index + " 0x"
+							+ Long.toHexString(session.resumeSessionId));
+					zk = new DetachableZooKeeper(zooKeeperServers, sessionTimeoutMs, session.watcher,
+							session.resumeSessionId, session.resumeSessionPasswd, canBeReadOnly);
+					session.resumeSessionId = 0;
+					session.resumeSessionPasswd = null;
+					session.resumePending = true;
+				} else {
+					zk = new DetachableZooKeeper(zooKeeperServers, sessionTimeoutMs, session.watcher, canBeReadOnly);
+				}
+				credentials.authenticate(zk);
+				// publish only once authenticated, readers on the fast path don't lock
+				session.zooKeeper = zk;
+				return zk;
+			} catch (IOException ex) {
+				throw new ZooKeeperConnectionException(ex);
 			}
 		}
 	}
 
+	private int sessionOf(String path) {
+		return sessions.length == 1 ? 0 : ZooKeeperUtils.indexFor(path, sessions.length);
+	}
+
+	public int getSessionCount() {
+		return sessions.length;
+	}
+
+	/**
+	 * Closes every session of this client.
+	 */
+	public void close() {
+		for (Session session : sessions) {
+			close(session);
+		}
+	}
+
+	private void close(Session session) {
+		synchronized (session) {
+			if (session.zooKeeper != null) {
+				try {
+					session.zooKeeper.close();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					logger.warn("Interrupted trying to close zooKeeper");
+				} finally {
+					session.zooKeeper = null;
+					session.resetConnected();
+					logger.info("Zookeeper session " + session.index + " has been closed.");
+				}
+			}
+			session.resumeSessionId = 0;
+			session.resumeSessionPasswd = null;
+			session.resumePending = false;
+		}
+	}
+
+	/**
+	 * Drops the connections of every session without ending the sessions on the server. The next
+	 * {@link #get()} resumes them with their id and password, and only re-arms their watches
+	 * instead of running a full expiration recovery. Use it instead of {@link #close()} when
+	 * disconnecting for transient reasons; a session that timed out meanwhile expires as usual.
+	 */
+	public void detach() {
+		for (Session session : sessions) {
+			detach(session);
+		}
+	}
+
+	private void detach(Session session) {
+		synchronized (session) {
+			DetachableZooKeeper zk = (DetachableZooKeeper) session.zooKeeper;
+			if (zk == null) {
+				return;
+			}
+			long sessionId = zk.getSessionId();
+			if (sessionId == 0) {
+				// never established, nothing to resume
+				close(session);
+				return;
+			}
+			session.resumeSessionId = sessionId;
+			session.resumeSessionPasswd = zk.getSessionPasswd();
+			zk.detach();
+			session.zooKeeper = null;
+			session.resetConnected();
+			if (session.disconnectedAtMs < 0) {
+				session.disconnectedAtMs = System.currentTimeMillis();
+			}
+			logger.info("Zookeeper session " + session.index + " 0x" + Long.toHexString(sessionId)
+					+ " has been detached.");
+		}
+		stateChanged(session, ConnectionState.SUSPENDED);
+	}
+
 	public void addBackgroundJob(Runnable job) {
-		jobs.offer(job);
+		backgroundExecutor.submit(job);
+	}
+
+	/**
+	 * Adds a job that runs after every job previously added for the same {@code path}; jobs of
+	 * different paths may run concurrently.
+	 */
+	public void addBackgroundJob(String path, Runnable job) {
+		backgroundExecutor.submit(path, job);
+	}
+
+	/**
+	 * Same as {@link #addBackgroundJob(String, Runnable)}, {@link BackgroundJobExecutor.Priority#HIGH}
+	 * jobs run before every queued normal job.
+	 */
+	public void addBackgroundJob(String path, Runnable job, BackgroundJobExecutor.Priority priority) {
+		backgroundExecutor.submit(path, job, priority);
+	}
+
+	/**
+	 * @return the executor running background jobs, exposing queue depth and latency metrics and
+	 *         its queue bounds
+	 */
+	public BackgroundJobExecutor getBackgroundExecutor() {
+		return backgroundExecutor;
+	}
+
+	/**
+	 * @return the scheduler on which asynchronous retries wait out their backoff
+	 */
+	public ScheduledExecutorService getRetryScheduler() {
+		return retryScheduler;
+	}
+
+	/**
+	 * @return the dispatcher delivering data listener callbacks, exposing listener execution metrics
+	 */
+	public ListenerDispatcher getListenerDispatcher() {
+		return listenerDispatcher;
+	}
+
+	/**
+	 * Runs data listener callbacks on {@code executor} instead of the client's own listener threads.
+	 * Callbacks of one node are still delivered one at a time in order.
+	 */
+	public void setListenerExecutor(Executor executor) {
+		listenerDispatcher.setExecutor(executor);
+	}
+
+	/**
+	 * Returns the shared node of {@code path}, {@code deserializer} and {@code snapshotStore},
+	 * creating it if needed. Paths are normalized first, deserializers are matched with
+	 * {@link Object#equals}. Nodes with different stores aren't shared, so that every store is
+	 * written.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> SharedNode<T> acquireNode(String path, NodeDeserializer<T> deserializer, NodeSnapshotStore snapshotStore) {
+		if (path == null || deserializer == null)
+			throw new IllegalArgumentException();
+		path = ZooKeeperUtils.normalizePath(path);
+		NodeKey key = new NodeKey(path, deserializer, snapshotStore);
+		synchronized (nodes) {
+			SharedNode<T> node = (SharedNode<T>) nodes.get(key);
+			if (node != null && node.retain()) {
+				return node;
+			}
+			node = new SharedNode<T>(this, path, deserializer, snapshotStore);
+			nodes.put(key, node);
+			return node;
+		}
+	}
+
+	void removeNode(SharedNode<?> node) {
+		synchronized (nodes) {
+			nodes.remove(new NodeKey(node.getPath(), node.getDeserializer(), node.getSnapshotStore()), node);
+		}
+	}
+
+	/**
+	 * @return number of shared nodes currently held
+	 */
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Registers a handler run when the first session expires.
+	 */
+	public void registerExpirationHandler(Command<?> onExpired) {
+		sessions[0].expirationHandlers.add(onExpired);
+	}
+
+	/**
+	 * Registers a handler run when the session that {@code path} is routed to expires.
+	 */
+	public void registerExpirationHandler(String path, Command<?> onExpired) {
+		sessions[sessionOf(path)].expirationHandlers.add(onExpired);
+	}
+
+	public void unRegisterExpirationHandler(Command<?> onExpired) {
+		for (Session session : sessions) {
+			session.expirationHandlers.remove(onExpired);
+		}
+	}
+
+	/**
+	 * Sets how many {@link AsyncCommand} expiration handlers may be in flight at once while
+	 * recovering from a session expiration.
+	 */
+	public void setRecoveryWindow(int recoveryWindow) {
+		if (recoveryWindow <= 0)
+			throw new IllegalArgumentException();
+		this.recoveryWindow = recoveryWindow;
+	}
+
+	/**
+	 * @return milliseconds the last session expiration recovery took until every expiration handler
+	 *         completed, or -1 if no recovery has completed yet
+	 */
+	public long getLastRecoveryTimeMs() {
+		return lastRecoveryTimeMs;
+	}
+
+	private void executeExpirationHandlers(Session session, long expiredAtMs) {
+		new ExpirationRecovery(session.expirationHandlers.iterator(), recoveryWindow, expiredAtMs).pump();
 	}
 
-	public void registerExpirationHandler(Command onExpired) {
-		expirationHandlers.add(onExpired);
+	private static class NodeKey {
+		final String path;
+		final NodeDeserializer<?> deserializer;
+		// null for nodes without a store
+		final NodeSnapshotStore snapshotStore;
+
+		NodeKey(String path, NodeDeserializer<?> deserializer, NodeSnapshotStore snapshotStore) {
+			this.path = path;
+			this.deserializer = deserializer;
+			this.snapshotStore = snapshotStore;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = 31 * path.hashCode() + deserializer.hashCode();
+			return snapshotStore == null ? hash : 31 * hash + snapshotStore.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof NodeKey)) {
+				return false;
+			}
+			NodeKey other = (NodeKey) obj;
+			return path.equals(other.path) && deserializer.equals(other.deserializer)
+					&& (snapshotStore == null ? other.snapshotStore == null : snapshotStore.equals(other.snapshotStore));
+		}
 	}
 
-	public void unRegisterExpirationHandler(Command onExpired) {
-		expirationHandlers.remove(onExpired);
+	/**
+	 * A handle that can drop its connection without closing its session.
+	 */
+	private static class DetachableZooKeeper extends ZooKeeper {
+		DetachableZooKeeper(String connectString, int sessionTimeout, Watcher watcher, boolean canBeReadOnly)
+				throws IOException {
+			super(connectString, sessionTimeout, watcher, canBeReadOnly);
+		}
+
+		DetachableZooKeeper(String connectString, int sessionTimeout, Watcher watcher, long sessionId,
+				byte[] sessionPasswd, boolean canBeReadOnly) throws IOException {
+			super(connectString, sessionTimeout, watcher, sessionId, sessionPasswd, canBeReadOnly);
+		}
+
+		void detach() {
+			// stops the connection threads without sending closeSession
+			cnxn.disconnect();
+		}
 	}
 
-	private void executeExpirationHandlers() {
-		for (Command handler : expirationHandlers) {
+	/**
+	 * One zookeeper session of the pool and the expiration handlers of the paths routed to it.
+	 */
+	private static class Session {
+		final int index;
+		final Watcher watcher;
+		final Set<Command<?>> expirationHandlers = new CopyOnWriteArraySet<Command<?>>();
+		volatile ZooKeeper zooKeeper;
+		// open while the session isn't connected
+		volatile CountDownLatch connected = new CountDownLatch(1);
+		volatile ConnectionState state;
+		// when the connection was lost or the session expired, -1 if it hasn't since last connected
+		volatile long disconnectedAtMs = -1;
+		volatile long expiredAtMs = -1;
+		// id and password of a detached session to resume, guarded by this
+		long resumeSessionId = 0;
+		byte[] resumeSessionPasswd;
+		// set while the watches of a resumed session still need to be re-armed
+		volatile boolean resumePending = false;
+
+		Session(int index, Watcher watcher) {
+			this.index = index;
+			this.watcher = watcher;
+		}
+
+		void resetConnected() {
+			if (connected.getCount() == 0) {
+				connected = new CountDownLatch(1);
+			}
+		}
+	}
+
+	/**
+	 * Runs the expiration handlers of one session expiration, or of one resumed session to re-arm
+	 * its watches. {@link AsyncCommand} handlers are pipelined with at most {@code window} in
+	 * flight, other handlers run inline. Nothing blocks waiting for completions: each completion
+	 * pumps the next handlers. When re-arming, {@link ResumableCommand} handlers are resumed rather
+	 * than executed.
+	 */
+	private class ExpirationRecovery {
+		private final Iterator<Command<?>> handlers;
+		private final int window;
+		private final long startMs = System.currentTimeMillis();
+		// -1 when re-arming a resumed session
+		private final long expiredAtMs;
+		private int inFlight = 0;
+		private int executed = 0;
+		private boolean pumping = false;
+		private boolean finished = false;
+
+		ExpirationRecovery(Iterator<Command<?>> handlers, int window, long expiredAtMs) {
+			this.handlers = handlers;
+			this.window = window;
+			this.expiredAtMs = expiredAtMs;
+		}
+
+		void pump() {
+			synchronized (this) {
+				if (pumping) {
+					return;
+				}
+				pumping = true;
+			}
+			while (true) {
+				Command<?> handler;
+				synchronized (this) {
+					if (inFlight >= window || !handlers.hasNext()) {
+						pumping = false;
+						if (inFlight == 0 && !handlers.hasNext() && !finished) {
+							finished = true;
+							finish();
+						}
+						return;
+					}
+					handler = handlers.next();
+					executed++;
+					if (handler instanceof AsyncCommand) {
+						inFlight++;
+					}
+				}
+				execute(handler);
+			}
+		}
+
+		private void execute(final Command<?> handler) {
+			if (handler instanceof AsyncCommand) {
+				Runnable onComplete = new Runnable() {
+					@Override
+					public void run() {
+						logger.debug("Complete execute expirationHandler " + handler);
+						completed();
+					}
+				};
+				try {
+					if (expiredAtMs < 0 && handler instanceof ResumableCommand) {
+						((ResumableCommand<?>) handler).resumeAsync(onComplete);
+					} else {
+						((AsyncCommand<?>) handler).executeAsync(onComplete);
+					}
+				} catch (Throwable ex) {
+					logger.error("Exception occur when execute expirationHandler", ex);
+					completed();
+				}
+				return;
+			}
 			try {
 				handler.execute();
 				logger.info("Complete execute expirationHandler " + handler);
@@ -248,6 +908,24 @@ public class ZooKeeperClient {
 				logger.error("Exception occur when execute expirationHandler", ex);
 			}
 		}
-		logger.info("Complete execute expirationHandlers.");
+
+		private void completed() {
+			synchronized (this) {
+				inFlight--;
+			}
+			pump();
+		}
+
+		private void finish() {
+			long now = System.currentTimeMillis();
+			if (expiredAtMs < 0) {
+				logger.info("Complete re-arm " + executed + " expirationHandlers of resumed session in "
+						+ (now - startMs) + "ms.");
+				return;
+			}
+			lastRecoveryTimeMs = now - startMs;
+			resyncHistogram.record(now - expiredAtMs);
+			logger.info("Complete execute " + executed + " expirationHandlers in " + lastRecoveryTimeMs + "ms.");
+		}
 	}
 }
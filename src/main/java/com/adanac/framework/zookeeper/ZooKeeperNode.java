@@ -1,225 +1,207 @@
 package com.adanac.framework.zookeeper;
 
-import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.Watcher.Event.KeeperState;
-import org.apache.zookeeper.data.Stat;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.adanac.framework.zookeeper.intf.Supplier;
-import com.adanac.framework.zookeeper.util.BackoffHelper;
-import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reference to the cached data of a zookeeper node. Every reference returned by {@link #create}
+ * for the same client, path, deserializer and snapshot store reads through one shared watch and
+ * cached value, while the listeners added through a reference belong to it: they are dropped when
+ * that reference is released, without affecting the other holders.
+ *
+ * @param <T> the type of data associated with this node
+ * @author adanac
+ * @version 1.0
+ */
 public class ZooKeeperNode<T> implements DataCache<T> {
 
-	private static Logger logger = LoggerFactory.getLogger(ZooKeeperNode.class);
-	private ZooKeeperClient client;
-	private String nodePath;
-	private NodeDeserializer<T> deserializer;
-	private BackoffHelper backoffHelper;
-	private volatile T nodeData;
-	private volatile DataListener<T> dataListener;
-	private final Watcher nodeWatcher;
-	private volatile boolean destroyed = false;
-	private Command expirationHandler;
-
+	private final SharedNode<T> node;
+	private final ListenerDispatcher listenerDispatcher;
+	// listeners added through this reference
+	private final List<SharedNode.Subscriber<T>> subscribers = new CopyOnWriteArrayList<SharedNode.Subscriber<T>>();
+	private volatile boolean conflateEvents = false;
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	/**
+	 * Returns a reference to the node of {@code nodePath} shared by every caller using the same
+	 * client and deserializer, so that they share one watch and one cached value. Each returned
+	 * reference must be given back with {@link #release()}.
+	 * <p>
+	 * Paths are compared once normalized, deserializers with {@link Object#equals}. Share the
+	 * deserializer instance, such as those of {@link NodeDeserializers}, or implement equals: a new
+	 * anonymous deserializer per call never matches and gets a node, and a watch, of its own.
+	 */
 	public static <T> ZooKeeperNode<T> create(ZooKeeperClient zkClient, String nodePath,
 			NodeDeserializer<T> deserializer) {
-		return new ZooKeeperNode<T>(zkClient, nodePath, deserializer);
+		return create(zkClient, nodePath, deserializer, null);
 	}
 
-	ZooKeeperNode(final ZooKeeperClient zkClient, String path, NodeDeserializer<T> deserializer) {
+	/**
+	 * Creates a node that starts with the data persisted in {@code snapshotStore}, if any, and
+	 * persists every change to it. The snapshot is reconciled with zookeeper once the node is synced.
+	 * Only references created with the same store share their node.
+	 */
+	public static <T> ZooKeeperNode<T> create(ZooKeeperClient zkClient, String nodePath,
+			NodeDeserializer<T> deserializer, NodeSnapshotStore snapshotStore) {
 		if (zkClient == null)
 			throw new IllegalArgumentException();
-		if (path == null || "".equals(path.trim()))
-			throw new IllegalArgumentException();
-		if (deserializer == null)
-			throw new IllegalArgumentException();
-		this.client = zkClient;
-		this.nodePath = path;
-		this.deserializer = deserializer;
-		backoffHelper = new BackoffHelper();
-		destroyed = false;
-		nodeData = null;
-		nodeWatcher = new Watcher() {
-			@Override
-			public void process(WatchedEvent event) {
-				logger.debug("Node " + nodePath + " ,event:" + event);
-				if (destroyed) {
-					logger.warn("Node " + nodePath + " has been destroyed, will ignore event " + event);
-					return;
-				}
-				if (event.getState() == KeeperState.SyncConnected && (!Event.EventType.None.equals(event.getType()))) {
-					addWatchBackgroundJob();
-				}
-			}
-		};
-		expirationHandler = new Command() {
-
-			@Override
-			public String toString() {
-				return "ExpirationHandler@" + hashCode() + " of node " + nodePath;
-			}
+		return new ZooKeeperNode<T>(zkClient.acquireNode(nodePath, deserializer, snapshotStore),
+				zkClient.getListenerDispatcher());
+	}
 
-			@Override
-			public void execute() {
-				if (destroyed) {
-					logger.warn("Node " + nodePath + " has been destroyed.");
-					return;
-				}
-				try {
-					watchDataNodeUntilSuccess();
-				} catch (InterruptedException e) {
-					logger.warn("Interrupted while trying to re-establish watch to " + nodePath, e);
-					Thread.currentThread().interrupt();
-				}
-			}
-		};
+	ZooKeeperNode(SharedNode<T> node, ListenerDispatcher listenerDispatcher) {
+		this.node = node;
+		this.listenerDispatcher = listenerDispatcher;
 	}
 
 	@Override
 	public void sync(boolean retryUntilSuccess) throws DataException {
-		client.registerExpirationHandler(expirationHandler);
-		if (retryUntilSuccess) {
-			try {
-				watchDataNodeUntilSuccess();
-			} catch (InterruptedException e) {
-				logger.warn("Interrupted while trying to watch a data node " + nodePath, e);
-				Thread.currentThread().interrupt();
-			}
-		} else {
-			try {
-				watchDataNode();
-			} catch (Exception ex) {
-				addWatchBackgroundJob();
-				throw new DataException(ex);
-			}
-		}
+		node.sync(retryUntilSuccess);
 	}
 
 	@Override
 	public T getData() {
-		return nodeData;
+		return node.getData();
 	}
 
-	public DataListener getDataListener() {
-		return dataListener;
+	/**
+	 * Enables or disables asynchronous refresh. When enabled, watch events refresh this node with a
+	 * non-blocking read whose result is applied on the background thread of the node, so that the
+	 * refreshes of many nodes are pipelined over the session instead of costing one blocked round
+	 * trip each. Failed asynchronous reads fall back to the blocking refresh with backoff. Applies
+	 * to every holder of the node.
+	 */
+	public void setAsyncRefresh(boolean asyncRefresh) {
+		node.setAsyncRefresh(asyncRefresh);
 	}
 
-	@Override
-	public void monitor(final T currentExpectData, final DataListener<T> dataListener) {
-		client.addBackgroundJob(new Runnable() {
-			@Override
-			public void run() {
-				if (destroyed) {
-					logger.warn("Node " + nodePath + " has been destroyed.");
-					return;
-				}
-				try {
-					watchDataNodeUntilSuccess();
-					if (!_equals(currentExpectData, nodeData)) {
-						dataListener.dataChanged(currentExpectData, nodeData);
-					}
-					ZooKeeperNode.this.dataListener = dataListener;
-				} catch (InterruptedException e) {
-					logger.warn("Interrupted while trying to watch a data node " + nodePath, e);
-					Thread.currentThread().interrupt();
-				}
-			}
-		});
+	public boolean isAsyncRefresh() {
+		return node.isAsyncRefresh();
 	}
 
-	private boolean _equals(T data1, T data2) {
-		if (data1 == null) {
-			if (data2 != null) {
-				return false;
-			}
-		} else if (!data1.equals(data2)) {
-			return false;
-		}
-		return true;
+	/**
+	 * Marks this node as critical: its refreshes run before the bulk refreshes queued on the same
+	 * background thread, so that it stays fresh during a watch storm. Applies to every holder of the
+	 * node.
+	 */
+	public void setCritical(boolean critical) {
+		node.setCritical(critical);
 	}
 
-	private void addWatchBackgroundJob() {
-		if (destroyed) {
-			logger.warn("Node " + nodePath + " has been destroyed.");
-			return;
-		}
-		client.addBackgroundJob(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					watchDataNodeUntilSuccess();
-				} catch (InterruptedException e) {
-					logger.warn("Interrupted while trying to watch a data node " + nodePath, e);
-					Thread.currentThread().interrupt();
-				}
-			}
-		});
+	public boolean isCritical() {
+		return node.isCritical();
 	}
 
-	public void destroy() {
-		if (this.expirationHandler != null) {
-			client.unRegisterExpirationHandler(this.expirationHandler);
-		}
-		this.destroyed = true;
-		this.nodeData = null;
-		this.client = null;
-		this.deserializer = null;
-		this.backoffHelper = null;
-		this.dataListener = null;
-	}
-
-	synchronized void updateData(T newData) {
-		T oldData = nodeData;
-		nodeData = newData;
-		if (dataListener != null && !_equals(oldData, nodeData)) {
-			dataListener.dataChanged(oldData, nodeData);
+	/**
+	 * Enables or disables conflation of listener events: when a listener falls behind, the changes
+	 * it hasn't been notified of yet are merged into one event carrying the oldest old value and the
+	 * latest new value. Applies to every listener added through this reference.
+	 */
+	public void setConflateEvents(boolean conflate) {
+		this.conflateEvents = conflate;
+		for (SharedNode.Subscriber<T> subscriber : subscribers) {
+			subscriber.channel.setConflate(conflate);
 		}
 	}
 
-	private void watchDataNodeUntilSuccess() throws InterruptedException {
-		if (destroyed) {
-			logger.warn("Node " + nodePath + " has been destroyed.");
-			return;
+	/**
+	 * @return the first listener added through this reference, or null if none
+	 */
+	public DataListener getDataListener() {
+		List<DataListener<T>> listeners = getDataListeners();
+		return listeners.isEmpty() ? null : listeners.get(0);
+	}
+
+	/**
+	 * @return the listeners added through this reference, in registration order
+	 */
+	public List<DataListener<T>> getDataListeners() {
+		List<DataListener<T>> listeners = new ArrayList<DataListener<T>>();
+		for (SharedNode.Subscriber<T> subscriber : subscribers) {
+			listeners.add(subscriber.listener);
 		}
-		backoffHelper.doUntilSuccess(new Supplier<Boolean, InterruptedException>() {
-			@Override
-			public Boolean get() throws InterruptedException {
-				try {
-					watchDataNode();
-					return true;
-				} catch (KeeperException e) {
-					logger.info("Watch path " + nodePath + " KeeperException", e);
-					return !ZooKeeperUtils.isRetryable(e);
-				} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
-					logger.info("Watch path " + nodePath + " occur ZooKeeperConnectionException", e);
-					return false;
-				}
+		return listeners;
+	}
+
+	/**
+	 * Adds a listener notified of every later change. The same read and deserialization serve all
+	 * listeners of the node.
+	 */
+	public void addDataListener(DataListener<T> dataListener) {
+		if (dataListener == null)
+			throw new IllegalArgumentException();
+		SharedNode.Subscriber<T> subscriber = newSubscriber(dataListener);
+		subscribers.add(subscriber);
+		node.addSubscriber(subscriber);
+	}
+
+	/**
+	 * Removes a listener added through this reference. It isn't called again, not even for changes
+	 * it hadn't been notified of yet.
+	 */
+	public void removeDataListener(DataListener<T> dataListener) {
+		for (SharedNode.Subscriber<T> subscriber : subscribers) {
+			if (subscriber.listener == dataListener) {
+				subscribers.remove(subscriber);
+				cancel(subscriber);
 			}
-		});
+		}
 	}
 
-	private synchronized void watchDataNode()
-			throws InterruptedException, KeeperException, ZooKeeperClient.ZooKeeperConnectionException {
-		if (destroyed) {
-			logger.warn("Node " + nodePath + " has been destroyed.");
+	@Override
+	public void monitor(T currentExpectData, DataListener<T> dataListener) {
+		SharedNode.Subscriber<T> subscriber = newSubscriber(dataListener);
+		subscribers.add(subscriber);
+		node.monitor(currentExpectData, subscriber);
+	}
+
+	/**
+	 * Gives back a reference obtained from {@link #create} and drops the listeners added through
+	 * it. The node is destroyed once every holder has released it.
+	 */
+	public void release() {
+		if (!released.compareAndSet(false, true)) {
 			return;
 		}
-		try {
-			Stat stat = new Stat();
-			byte[] rawData = client.get().getData(nodePath, nodeWatcher, stat);
-			T newData = deserializer.deserialize(rawData);
-			updateData(newData);
-		} catch (KeeperException.NoNodeException e) {
-			updateData(null);
-			if (!destroyed) {
-				// This node doesn't exist right now, reflect that locally
-				// and then create a watch to wait for its recreation.
-				client.get().exists(nodePath, nodeWatcher);
-			}
+		for (SharedNode.Subscriber<T> subscriber : subscribers) {
+			cancel(subscriber);
 		}
+		subscribers.clear();
+		node.release();
+	}
+
+	/**
+	 * Same as {@link #release()}.
+	 */
+	@Override
+	public void destroy() {
+		release();
+	}
+
+	// used by ZooKeeperNodes to sync many nodes at once
+	void syncAsync(SharedNode.LoadCallback callback) {
+		node.syncAsync(callback);
+	}
+
+	void syncInBackground() {
+		node.syncInBackground();
+	}
+
+	boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+		return node.awaitConnected(timeout, unit);
+	}
+
+	private SharedNode.Subscriber<T> newSubscriber(DataListener<T> dataListener) {
+		return new SharedNode.Subscriber<T>(dataListener, listenerDispatcher.<T> newChannel(conflateEvents));
+	}
+
+	private void cancel(SharedNode.Subscriber<T> subscriber) {
+		subscriber.cancelled = true;
+		node.removeSubscriber(subscriber);
+		// events queued before the removal aren't delivered either
+		subscriber.channel.close();
 	}
 }
@@ -0,0 +1,124 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utilities for dealing with many {@link ZooKeeperNode}s at once.
+ * @author adanac
+ * @version 1.0
+ */
+public class ZooKeeperNodes {
+	private static Logger logger = LoggerFactory.getLogger(ZooKeeperNodes.class);
+
+	private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+	/**
+	 * Same as {@link #syncAll(Collection, long, TimeUnit, int)} with at most 256 reads in flight.
+	 */
+	public static Set<ZooKeeperNode<?>> syncAll(Collection<? extends ZooKeeperNode<?>> nodes, long timeout,
+			TimeUnit unit) throws InterruptedException {
+		return syncAll(nodes, timeout, unit, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Loads and watches all given nodes concurrently, as {@code sync} would do one node at a time.
+	 * The initial reads are issued through the asynchronous zookeeper API with at most
+	 * {@code maxInFlight} outstanding, so loading costs a few round trips rather than one per node.
+	 * Reads failing with a retryable error, such as a connection loss, are issued again once the
+	 * session of the node is connected, until the deadline. Nodes that failed or weren't loaded
+	 * before the deadline keep retrying in the background.
+	 * Must not be called from a background job of the client.
+	 *
+	 * @param nodes       the nodes to sync
+	 * @param timeout     the maximum time to wait for all nodes to be loaded
+	 * @param unit        the unit of {@code timeout}
+	 * @param maxInFlight the maximum number of reads outstanding at once
+	 * @return the nodes not loaded when this method returns, empty if all were loaded
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static Set<ZooKeeperNode<?>> syncAll(Collection<? extends ZooKeeperNode<?>> nodes, long timeout,
+			TimeUnit unit, int maxInFlight) throws InterruptedException {
+		if (nodes == null || unit == null || maxInFlight <= 0)
+			throw new IllegalArgumentException();
+		long startMs = System.currentTimeMillis();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		final Semaphore window = new Semaphore(maxInFlight);
+		final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<Outcome>();
+		final Set<ZooKeeperNode<?>> loaded = Collections
+				.newSetFromMap(new ConcurrentHashMap<ZooKeeperNode<?>, Boolean>());
+		int pending = 0;
+		for (ZooKeeperNode<?> node : nodes) {
+			if (!window.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+				// out of time, let the node load in the background
+				node.syncInBackground();
+				continue;
+			}
+			pending++;
+			node.syncAsync(callback(node, window, outcomes));
+		}
+		while (pending > 0) {
+			Outcome outcome = outcomes.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			if (outcome == null) {
+				break;
+			}
+			if (outcome.success) {
+				loaded.add(outcome.node);
+				pending--;
+			} else if (!outcome.retryable
+					|| !outcome.node.awaitConnected(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+					|| !window.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+				// given up, a failed node already keeps retrying in the background
+				pending--;
+			} else {
+				outcome.node.syncAsync(callback(outcome.node, window, outcomes));
+			}
+		}
+		Set<ZooKeeperNode<?>> failed = new LinkedHashSet<ZooKeeperNode<?>>();
+		for (ZooKeeperNode<?> node : nodes) {
+			if (!loaded.contains(node)) {
+				failed.add(node);
+			}
+		}
+		logger.info("Synced " + (nodes.size() - failed.size()) + " of " + nodes.size() + " nodes in "
+				+ (System.currentTimeMillis() - startMs) + "ms.");
+		return failed;
+	}
+
+	private static SharedNode.LoadCallback callback(final ZooKeeperNode<?> node, final Semaphore window,
+			final BlockingQueue<Outcome> outcomes) {
+		return new SharedNode.LoadCallback() {
+			@Override
+			public void loaded(boolean success, boolean retryable) {
+				window.release();
+				outcomes.add(new Outcome(node, success, retryable));
+			}
+		};
+	}
+
+	private ZooKeeperNodes() {
+		// utility
+	}
+
+	private static class Outcome {
+		final ZooKeeperNode<?> node;
+		final boolean success;
+		final boolean retryable;
+
+		Outcome(ZooKeeperNode<?> node, boolean success, boolean retryable) {
+			this.node = node;
+			this.success = success;
+			this.retryable = retryable;
+		}
+	}
+}
@@ -0,0 +1,713 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adanac.framework.zookeeper.intf.BackoffStrategy;
+import com.adanac.framework.zookeeper.util.ZooKeeperUtils;
+
+/**
+ * Mirrors a whole zookeeper subtree in memory. Nodes are kept in a trie indexed by path segment,
+ * all of them share a single watcher, and reads are issued through the asynchronous zookeeper API
+ * with a bounded number in flight, so the initial load and the re-sync after session expiration
+ * are pipelined rather than costing one round trip per node. When a detached session is resumed,
+ * only the stat of each node is read again to re-arm its watch, and its data only if it changed.
+ * Changes are applied on the background thread owning the root path.
+ * @author adanac
+ * @version 1.0
+ */
+public class ZooKeeperTree {
+
+	private static Logger logger = LoggerFactory.getLogger(ZooKeeperTree.class);
+	private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	private static final long RETRY_INITIAL_BACKOFF_MS = 1000;
+	private static final long RETRY_MAX_BACKOFF_MS = 60 * 1000;
+	// stateless once stopAtMax is false, every read carries its own last backoff
+	private static final BackoffStrategy RETRY_BACKOFF = new TruncatedBinaryBackoff(RETRY_INITIAL_BACKOFF_MS,
+			RETRY_MAX_BACKOFF_MS);
+	private ZooKeeperClient client;
+	private final String rootPath;
+	private final int maxInFlight;
+	private final TreeNode root;
+	private final Watcher treeWatcher;
+	private final List<TreeListener> listeners = new CopyOnWriteArrayList<TreeListener>();
+	// guarded by this
+	private final LinkedList<Read> pendingReads = new LinkedList<Read>();
+	private final List<Runnable> idleCallbacks = new ArrayList<Runnable>();
+	private int inFlight = 0;
+	// reads waiting out a backoff, they keep the tree from being idle
+	private int retrying = 0;
+	private volatile boolean destroyed = false;
+	private ResumableCommand<RuntimeException> expirationHandler;
+
+	public static ZooKeeperTree create(ZooKeeperClient zkClient, String rootPath) {
+		return new ZooKeeperTree(zkClient, rootPath, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * @param maxInFlight maximum number of asynchronous reads outstanding at once
+	 */
+	public static ZooKeeperTree create(ZooKeeperClient zkClient, String rootPath, int maxInFlight) {
+		return new ZooKeeperTree(zkClient, rootPath, maxInFlight);
+	}
+
+	ZooKeeperTree(final ZooKeeperClient zkClient, String path, int maxInFlight) {
+		if (zkClient == null)
+			throw new IllegalArgumentException();
+		if (path == null || "".equals(path.trim()))
+			throw new IllegalArgumentException();
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException();
+		this.client = zkClient;
+		this.rootPath = ZooKeeperUtils.normalizePath(path);
+		this.maxInFlight = maxInFlight;
+		this.root = new TreeNode(rootPath);
+		treeWatcher = new Watcher() {
+			@Override
+			public void process(WatchedEvent event) {
+				logger.debug("Tree " + rootPath + " ,event:" + event);
+				if (destroyed || event.getState() != KeeperState.SyncConnected
+						|| EventType.None.equals(event.getType())) {
+					return;
+				}
+				final String eventPath = event.getPath();
+				switch (event.getType()) {
+				case NodeDataChanged:
+					submitRead(eventPath, false);
+					break;
+				case NodeChildrenChanged:
+					submitRead(eventPath, true);
+					break;
+				case NodeCreated:
+					submitRead(eventPath, false);
+					submitRead(eventPath, true);
+					break;
+				case NodeDeleted:
+					zkClient.addBackgroundJob(rootPath, new SubtreeRemoval(eventPath));
+					break;
+				default:
+					break;
+				}
+			}
+		};
+		expirationHandler = new ResumableCommand<RuntimeException>() {
+
+			@Override
+			public String toString() {
+				return "ExpirationHandler@" + hashCode() + " of tree " + rootPath;
+			}
+
+			@Override
+			public void execute() {
+				reloadAll(false, null);
+			}
+
+			@Override
+			public void executeAsync(Runnable onComplete) {
+				reloadAll(false, onComplete);
+			}
+
+			@Override
+			public void resumeAsync(Runnable onComplete) {
+				reloadAll(true, onComplete);
+			}
+		};
+	}
+
+	/**
+	 * Loads the tree and waits at most {@code timeout} for the initial load to complete. The tree
+	 * keeps loading in the background if the timeout elapses. Reads failing with a retryable error
+	 * keep the load pending until they succeed.
+	 *
+	 * @return whether the initial load completed in time
+	 */
+	public boolean sync(long timeout, TimeUnit unit) throws InterruptedException {
+		client.registerExpirationHandler(rootPath, expirationHandler);
+		final CountDownLatch loaded = new CountDownLatch(1);
+		submitRead(rootPath, false);
+		submitRead(rootPath, true);
+		whenIdle(new Runnable() {
+			@Override
+			public void run() {
+				loaded.countDown();
+			}
+		});
+		return loaded.await(timeout, unit);
+	}
+
+	public String getRootPath() {
+		return rootPath;
+	}
+
+	/**
+	 * @return the data of the node at {@code path}, or null if it isn't loaded. The returned array
+	 *         must not be modified.
+	 */
+	public byte[] getData(String path) {
+		TreeNode node = find(path);
+		return node == null ? null : node.data;
+	}
+
+	/**
+	 * @return the stat of the node at {@code path}, or null if it isn't loaded
+	 */
+	public Stat getStat(String path) {
+		TreeNode node = find(path);
+		return node == null ? null : node.stat;
+	}
+
+	/**
+	 * @return the names of the children of the node at {@code path}
+	 */
+	public Set<String> getChildren(String path) {
+		TreeNode node = find(path);
+		if (node == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(new HashSet<String>(node.children.keySet()));
+	}
+
+	/**
+	 * @return the data of the node at {@code path} and of all its loaded descendants, keyed and
+	 *         sorted by path
+	 */
+	public Map<String, byte[]> getSubtree(String path) {
+		Map<String, byte[]> result = new TreeMap<String, byte[]>();
+		TreeNode node = find(path);
+		if (node != null) {
+			collect(node, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of loaded nodes in the tree
+	 */
+	public int size() {
+		return count(root);
+	}
+
+	public void addTreeListener(TreeListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		listeners.add(listener);
+	}
+
+	public void removeTreeListener(TreeListener listener) {
+		listeners.remove(listener);
+	}
+
+	public void destroy() {
+		if (this.expirationHandler != null) {
+			client.unRegisterExpirationHandler(this.expirationHandler);
+		}
+		this.destroyed = true;
+		synchronized (this) {
+			pendingReads.clear();
+		}
+		this.root.children.clear();
+		this.root.data = null;
+		this.root.stat = null;
+		this.listeners.clear();
+		this.client = null;
+	}
+
+	private void collect(TreeNode node, Map<String, byte[]> result) {
+		if (node.stat != null) {
+			result.put(node.path, node.data);
+		}
+		for (TreeNode child : node.children.values()) {
+			collect(child, result);
+		}
+	}
+
+	private int count(TreeNode node) {
+		int n = node.stat != null ? 1 : 0;
+		for (TreeNode child : node.children.values()) {
+			n += count(child);
+		}
+		return n;
+	}
+
+	private TreeNode find(String path) {
+		if (path == null) {
+			return null;
+		}
+		if (path.equals(rootPath)) {
+			return root;
+		}
+		String prefix = "/".equals(rootPath) ? "/" : rootPath + "/";
+		if (!path.startsWith(prefix)) {
+			return null;
+		}
+		TreeNode node = root;
+		for (String segment : path.substring(prefix.length()).split("/")) {
+			node = node.children.get(segment);
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	private String childPath(String parent, String child) {
+		return "/".equals(parent) ? "/" + child : parent + "/" + child;
+	}
+
+	/**
+	 * Reads every known node again to re-arm the watches lost with the handle. Children lists are
+	 * always read, as only getChildren arms a child watch, but they only carry names.
+	 *
+	 * @param changedOnly whether the data of a node is only read if its stat shows it changed, for a
+	 *                    resumed session whose data is still what was read
+	 */
+	private void reloadAll(boolean changedOnly, Runnable onComplete) {
+		List<String> paths = new ArrayList<String>();
+		paths.add(rootPath);
+		collectPaths(root, paths);
+		for (String path : paths) {
+			submit(new Read(path, false, changedOnly, 0));
+			submitRead(path, true);
+		}
+		if (onComplete != null) {
+			whenIdle(onComplete);
+		}
+	}
+
+	private void collectPaths(TreeNode node, List<String> paths) {
+		for (TreeNode child : node.children.values()) {
+			paths.add(child.path);
+			collectPaths(child, paths);
+		}
+	}
+
+	private void submitRead(String path, boolean children) {
+		submit(new Read(path, children));
+	}
+
+	private void submit(Read read) {
+		if (destroyed) {
+			return;
+		}
+		synchronized (this) {
+			pendingReads.add(read);
+		}
+		pump();
+	}
+
+	private void whenIdle(Runnable callback) {
+		synchronized (this) {
+			if (!isIdle()) {
+				idleCallbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	// guarded by this
+	private boolean isIdle() {
+		return inFlight == 0 && retrying == 0 && pendingReads.isEmpty();
+	}
+
+	private void pump() {
+		List<Read> batch = new ArrayList<Read>();
+		synchronized (this) {
+			while (inFlight < maxInFlight && !pendingReads.isEmpty()) {
+				batch.add(pendingReads.poll());
+				inFlight++;
+			}
+		}
+		for (Read read : batch) {
+			issue(read);
+		}
+	}
+
+	private void readDone() {
+		synchronized (this) {
+			inFlight--;
+		}
+		pump();
+		runIdleCallbacks();
+	}
+
+	private void retryDue(Read read) {
+		synchronized (this) {
+			retrying--;
+			if (!destroyed) {
+				pendingReads.add(read);
+			}
+		}
+		pump();
+		runIdleCallbacks();
+	}
+
+	private void runIdleCallbacks() {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			if (!isIdle() || idleCallbacks.isEmpty()) {
+				return;
+			}
+			callbacks = new ArrayList<Runnable>(idleCallbacks);
+			idleCallbacks.clear();
+		}
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	private void issue(final Read read) {
+		final ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			readDone();
+			return;
+		}
+		try {
+			if (read.children) {
+				zkClient.get(rootPath).getChildren(read.path, treeWatcher, new AsyncCallback.Children2Callback() {
+					@Override
+					public void processResult(final int rc, String path, Object ctx, final List<String> children,
+							Stat stat) {
+						complete(zkClient, read, new Runnable() {
+							@Override
+							public void run() {
+								applyChildren(read, rc, children);
+							}
+						});
+					}
+				}, null);
+			} else if (read.statOnly) {
+				zkClient.get(rootPath).exists(read.path, treeWatcher, new AsyncCallback.StatCallback() {
+					@Override
+					public void processResult(final int rc, String path, Object ctx, final Stat stat) {
+						complete(zkClient, read, new Runnable() {
+							@Override
+							public void run() {
+								applyStat(read, rc, stat);
+							}
+						});
+					}
+				}, null);
+			} else {
+				zkClient.get(rootPath).getData(read.path, treeWatcher, new AsyncCallback.DataCallback() {
+					@Override
+					public void processResult(final int rc, String path, Object ctx, final byte[] data,
+							final Stat stat) {
+						complete(zkClient, read, new Runnable() {
+							@Override
+							public void run() {
+								applyData(read, rc, data, stat);
+							}
+						});
+					}
+				}, null);
+			}
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			logger.info("Read " + read.path + " occur ZooKeeperConnectionException", e);
+			retryLater(read);
+			readDone();
+		}
+	}
+
+	private void complete(ZooKeeperClient zkClient, Read read, final Runnable apply) {
+		// leave the zookeeper event thread before touching the trie and notifying listeners
+		zkClient.addBackgroundJob(rootPath, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					apply.run();
+				} finally {
+					readDone();
+				}
+			}
+		});
+	}
+
+	private void applyData(Read read, int rc, byte[] data, Stat stat) {
+		if (destroyed) {
+			return;
+		}
+		KeeperException.Code code = KeeperException.Code.get(rc);
+		if (code == KeeperException.Code.OK) {
+			TreeNode node = find(read.path);
+			if (node == null) {
+				// removed while the read was in flight
+				return;
+			}
+			Stat oldStat = node.stat;
+			if (oldStat != null && oldStat.getMzxid() == stat.getMzxid()) {
+				return;
+			}
+			byte[] oldData = node.data;
+			node.data = data;
+			node.stat = stat;
+			if (oldStat == null) {
+				fireAdded(node.path, data);
+			} else {
+				fireUpdated(node.path, oldData, data);
+			}
+		} else if (code == KeeperException.Code.NONODE) {
+			removeSubtree(read.path);
+		} else {
+			onReadError(read, code);
+		}
+	}
+
+	/**
+	 * Applies the stat read to re-arm the data watch of a node, reading its data only if it changed.
+	 */
+	private void applyStat(Read read, int rc, Stat stat) {
+		if (destroyed) {
+			return;
+		}
+		KeeperException.Code code = KeeperException.Code.get(rc);
+		if (code == KeeperException.Code.OK) {
+			TreeNode node = find(read.path);
+			if (node == null) {
+				return;
+			}
+			Stat oldStat = node.stat;
+			if (oldStat == null || oldStat.getMzxid() != stat.getMzxid()) {
+				submitRead(read.path, false);
+			}
+		} else if (code == KeeperException.Code.NONODE) {
+			removeSubtree(read.path);
+		} else {
+			onReadError(read, code);
+		}
+	}
+
+	private void applyChildren(Read read, int rc, List<String> names) {
+		if (destroyed) {
+			return;
+		}
+		KeeperException.Code code = KeeperException.Code.get(rc);
+		if (code == KeeperException.Code.OK) {
+			TreeNode node = find(read.path);
+			if (node == null) {
+				return;
+			}
+			Set<String> current = new HashSet<String>(names);
+			for (String name : new ArrayList<String>(node.children.keySet())) {
+				if (!current.contains(name)) {
+					removeSubtree(childPath(node.path, name));
+				}
+			}
+			for (String name : current) {
+				if (!node.children.containsKey(name)) {
+					String path = childPath(node.path, name);
+					node.children.put(name, new TreeNode(path));
+					submitRead(path, false);
+					submitRead(path, true);
+				}
+			}
+		} else if (code == KeeperException.Code.NONODE) {
+			removeSubtree(read.path);
+		} else {
+			onReadError(read, code);
+		}
+	}
+
+	private void onReadError(Read read, KeeperException.Code code) {
+		KeeperException e = KeeperException.create(code, read.path);
+		logger.info("Read " + read.path + " KeeperException", e);
+		if (ZooKeeperUtils.isRetryable(e)) {
+			retryLater(read);
+		}
+	}
+
+	private void removeSubtree(String path) {
+		TreeNode node = find(path);
+		if (node == null) {
+			return;
+		}
+		for (TreeNode child : new ArrayList<TreeNode>(node.children.values())) {
+			removeSubtree(child.path);
+		}
+		boolean loaded = node.stat != null;
+		if (node == root) {
+			root.data = null;
+			root.stat = null;
+			// wait for the root to be created again
+			watchRootCreation();
+		} else {
+			int index = path.lastIndexOf('/');
+			TreeNode parent = find(index == 0 ? "/" : path.substring(0, index));
+			if (parent != null) {
+				parent.children.remove(path.substring(index + 1));
+			}
+		}
+		if (loaded) {
+			fireRemoved(path);
+		}
+	}
+
+	private void watchRootCreation() {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			return;
+		}
+		try {
+			zkClient.get(rootPath).exists(rootPath, treeWatcher, new AsyncCallback.StatCallback() {
+				@Override
+				public void processResult(int rc, String path, Object ctx, Stat stat) {
+					if (rc == KeeperException.Code.OK.intValue()) {
+						// created before the watch was set
+						submitRead(rootPath, false);
+						submitRead(rootPath, true);
+					}
+				}
+			}, null);
+		} catch (ZooKeeperClient.ZooKeeperConnectionException e) {
+			logger.info("Watch root " + rootPath + " occur ZooKeeperConnectionException", e);
+			retryLater(new Read(rootPath, false));
+			retryLater(new Read(rootPath, true));
+		}
+	}
+
+	private void retryLater(final Read read) {
+		ZooKeeperClient zkClient = client;
+		if (destroyed || zkClient == null) {
+			return;
+		}
+		// each read backs off on its own, so an outage doesn't turn into a retry storm
+		long backoffMs = RETRY_BACKOFF.calculateBackoffMs(read.backoffMs);
+		final Read retry = new Read(read.path, read.children, read.statOnly, backoffMs);
+		logger.info("Retry read of " + read.path + " in " + backoffMs + "ms");
+		synchronized (this) {
+			retrying++;
+		}
+		try {
+			zkClient.getRetryScheduler().schedule(new Runnable() {
+				@Override
+				public void run() {
+					retryDue(retry);
+				}
+			}, backoffMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.warn("Retry scheduler has been shut down, giving up read of " + read.path, e);
+			synchronized (this) {
+				retrying--;
+			}
+			runIdleCallbacks();
+		}
+	}
+
+	private void fireAdded(String path, byte[] data) {
+		for (TreeListener listener : listeners) {
+			try {
+				listener.nodeAdded(path, data);
+			} catch (Throwable ex) {
+				logger.error("Exception occur when notify node added " + path, ex);
+			}
+		}
+	}
+
+	private void fireUpdated(String path, byte[] oldData, byte[] newData) {
+		for (TreeListener listener : listeners) {
+			try {
+				listener.nodeUpdated(path, oldData, newData);
+			} catch (Throwable ex) {
+				logger.error("Exception occur when notify node updated " + path, ex);
+			}
+		}
+	}
+
+	private void fireRemoved(String path) {
+		for (TreeListener listener : listeners) {
+			try {
+				listener.nodeRemoved(path);
+			} catch (Throwable ex) {
+				logger.error("Exception occur when notify node removed " + path, ex);
+			}
+		}
+	}
+
+	/**
+	 * Drops a deleted node and its descendants. Removals of the same path are equal, so that a
+	 * full background lane can coalesce them.
+	 */
+	private class SubtreeRemoval implements Runnable {
+		private final String path;
+
+		SubtreeRemoval(String path) {
+			this.path = path;
+		}
+
+		@Override
+		public void run() {
+			removeSubtree(path);
+		}
+
+		private ZooKeeperTree owner() {
+			return ZooKeeperTree.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SubtreeRemoval)) {
+				return false;
+			}
+			SubtreeRemoval other = (SubtreeRemoval) obj;
+			return owner() == other.owner() && path.equals(other.path);
+		}
+	}
+
+	private static class Read {
+		final String path;
+		final boolean children;
+		// reads the stat rather than the data, which is then read only if the node changed
+		final boolean statOnly;
+		// backoff waited before this read, 0 unless it is a retry
+		final long backoffMs;
+
+		Read(String path, boolean children) {
+			this(path, children, false, 0);
+		}
+
+		Read(String path, boolean children, boolean statOnly, long backoffMs) {
+			this.path = path;
+			this.children = children;
+			this.statOnly = statOnly;
+			this.backoffMs = backoffMs;
+		}
+	}
+
+	private static class TreeNode {
+		final String path;
+		final ConcurrentHashMap<String, TreeNode> children = new ConcurrentHashMap<String, TreeNode>();
+		volatile byte[] data;
+		// null until the data of the node has been loaded
+		volatile Stat stat;
+
+		TreeNode(String path) {
+			this.path = path;
+		}
+	}
+}
@@ -1,5 +1,10 @@
 package com.adanac.framework.zookeeper.util;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,6 +26,8 @@ public class BackoffHelper {
 
 	private final BackoffStrategy backoffStrategy;
 
+	private final ScheduledExecutorService scheduler;
+
 	/**
 	 * Creates a new BackoffHelper that uses truncated binary backoff starting at a 1 second backoff
 	 * and maxing out at a 1 minute backoff.
@@ -65,9 +72,32 @@ public class BackoffHelper {
 	 * @param backoffStrategy the backoff strategy to use
 	 */
 	public BackoffHelper(BackoffStrategy backoffStrategy) {
+		this(backoffStrategy, null);
+	}
+
+	/**
+	 * Creates a new BackoffHelper with the default truncated binary backoff that can also retry
+	 * asynchronously on the given {@code scheduler}.
+	 *
+	 * @param scheduler the scheduler used by {@link #doUntilSuccessAsync} to wait out backoffs
+	 */
+	public BackoffHelper(ScheduledExecutorService scheduler) {
+		this(new TruncatedBinaryBackoff(DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF), scheduler);
+	}
+
+	/**
+	 * Creates a BackoffHelper that uses the given {@code backoffStrategy} to calculate backoffs
+	 * between retries and the given {@code scheduler} to wait out backoffs of asynchronous retries.
+	 *
+	 * @param backoffStrategy the backoff strategy to use
+	 * @param scheduler       the scheduler used by {@link #doUntilSuccessAsync}, may be null if
+	 *                        only blocking retries are used
+	 */
+	public BackoffHelper(BackoffStrategy backoffStrategy, ScheduledExecutorService scheduler) {
 		if (backoffStrategy == null)
 			throw new IllegalArgumentException();
 		this.backoffStrategy = backoffStrategy;
+		this.scheduler = scheduler;
 	}
 
 	/**
@@ -105,6 +135,27 @@ public class BackoffHelper {
 		return (result != null) ? result : retryWork(task);
 	}
 
+	/**
+	 * Executes the given task until it succeeds as indicated by returning {@code true}, without
+	 * blocking any thread while backing off. The first attempt runs on the calling thread; every
+	 * retry is scheduled on the scheduler and, once its backoff has elapsed, handed to
+	 * {@code executor} so that the scheduler thread itself never runs the task. If the task throws
+	 * or the backoff stops, the failure is logged and no further retry is made.
+	 *
+	 * @param task      the retryable task to execute until success
+	 * @param executor  the executor running the retries
+	 * @param onSuccess run after the task succeeded, on the thread of the successful attempt; may
+	 *                  be null
+	 */
+	public <E extends Exception> void doUntilSuccessAsync(Supplier<Boolean, E> task, Executor executor,
+			Runnable onSuccess) {
+		if (task == null || executor == null)
+			throw new IllegalArgumentException();
+		if (scheduler == null)
+			throw new IllegalStateException("No scheduler configured for asynchronous retries.");
+		new AsyncRetry<E>(task, executor, onSuccess).run();
+	}
+
 	private <T, E extends Exception> T retryWork(Supplier<T, E> work)
 			throws E, InterruptedException, BackoffStoppedException {
 		long currentBackoffMs = 0;
@@ -120,6 +171,55 @@ public class BackoffHelper {
 		throw new BackoffStoppedException(String.format("Backoff stopped without succeeding."));
 	}
 
+	private class AsyncRetry<E extends Exception> implements Runnable {
+		private final Supplier<Boolean, E> task;
+		private final Executor executor;
+		private final Runnable onSuccess;
+		private long currentBackoffMs = 0;
+
+		AsyncRetry(Supplier<Boolean, E> task, Executor executor, Runnable onSuccess) {
+			this.task = task;
+			this.executor = executor;
+			this.onSuccess = onSuccess;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (Boolean.TRUE.equals(task.get())) {
+					if (onSuccess != null) {
+						onSuccess.run();
+					}
+					return;
+				}
+			} catch (Exception e) {
+				if (e instanceof InterruptedException) {
+					logger.warn("Interrupted while executing retryable operation, giving up", e);
+					Thread.currentThread().interrupt();
+				} else {
+					logger.error("Operation failed with exception, giving up", e);
+				}
+				return;
+			}
+			if (!backoffStrategy.shouldContinue()) {
+				logger.warn("Backoff stopped without succeeding.");
+				return;
+			}
+			currentBackoffMs = backoffStrategy.calculateBackoffMs(currentBackoffMs);
+			logger.info("Operation failed, retry scheduled in " + currentBackoffMs + "ms");
+			try {
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						executor.execute(AsyncRetry.this);
+					}
+				}, currentBackoffMs, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				logger.warn("Retry scheduler has been shut down, giving up", e);
+			}
+		}
+	}
+
 	/**
 	 * Occurs after the backoff strategy should stop.
 	 */
@@ -51,6 +51,8 @@ public class ZooKeeperUtils {
 		case SESSIONEXPIRED:
 		case SESSIONMOVED:
 		case OPERATIONTIMEOUT:
+			// a read-only session rejects writes until it reaches a server in the quorum again
+		case NOTREADONLY:
 			return true;
 		case RUNTIMEINCONSISTENCY:
 		case DATAINCONSISTENCY:
@@ -133,6 +135,23 @@ public class ZooKeeperUtils {
 		return normalizedPath;
 	}
 
+	/**
+	 * Maps {@code key} to a stable index in {@code [0, size)}, spreading the hash so that keys
+	 * sharing a long common prefix still distribute evenly.
+	 *
+	 * @param key  the key to map, null maps to 0
+	 * @param size the number of slots
+	 * @return the slot index of the key
+	 */
+	public static int indexFor(String key, int size) {
+		if (key == null) {
+			return 0;
+		}
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % size;
+	}
+
 	private ZooKeeperUtils() {
 		// utility
 	}
@@ -0,0 +1,52 @@
+package com.adanac.framework.zookeeper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of the client on JDK 21 and later. When the system property
+ * {@value #VIRTUAL_THREADS_PROPERTY} is {@code true}, background jobs, retry scheduling, connection
+ * state and listener callbacks run on virtual threads: listener callbacks get one thread each and
+ * background jobs are spread over many more shards, so a blocking read or backoff of one path no
+ * longer holds back the paths sharing its platform thread.
+ * @author adanac
+ * @version 1.0
+ */
+final class ThreadSupport {
+	static final String VIRTUAL_THREADS_PROPERTY = "adanac.zookeeper.virtualThreads";
+	// virtual shards are cheap, per-path ordering still needs a fixed set of them
+	private static final int VIRTUAL_SHARDS = 256;
+	private static final boolean VIRTUAL = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+	private ThreadSupport() {
+	}
+
+	static ThreadFactory threadFactory(final String name) {
+		if (VIRTUAL) {
+			return Thread.ofVirtual().name(name + "-", 0).factory();
+		}
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	static ExecutorService newListenerExecutor(String name, int threads) {
+		if (VIRTUAL) {
+			return Executors.newThreadPerTaskExecutor(threadFactory(name));
+		}
+		return Executors.newFixedThreadPool(threads, threadFactory(name));
+	}
+
+	static int backgroundShards(int threads) {
+		return VIRTUAL ? Math.max(threads, VIRTUAL_SHARDS) : threads;
+	}
+}
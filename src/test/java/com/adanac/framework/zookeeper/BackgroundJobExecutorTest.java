@@ -0,0 +1,277 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the ordering, lanes and overflow policies of {@link BackgroundJobExecutor}.
+ * @author adanac
+ * @version 1.0
+ */
+public class BackgroundJobExecutorTest {
+	private BackgroundJobExecutor executor;
+	private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		if (executor != null) {
+			executor.destroy();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void jobsOfOneKeyRunInOrderAcrossShards() throws InterruptedException {
+		executor = new BackgroundJobExecutor("order-test", 4);
+		final int keys = 64;
+		final int jobsPerKey = 200;
+		final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+		final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+		final CountDownLatch done = new CountDownLatch(keys * jobsPerKey);
+		for (int k = 0; k < keys; k++) {
+			runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		for (int i = 0; i < jobsPerKey; i++) {
+			for (int k = 0; k < keys; k++) {
+				final List<Integer> run = runs.get(k);
+				final int sequence = i;
+				executor.submit("/key/" + k, new Runnable() {
+					@Override
+					public void run() {
+						threads.add(Thread.currentThread().getName());
+						run.add(sequence);
+						done.countDown();
+					}
+				});
+			}
+		}
+		assertTrue(done.await(20, TimeUnit.SECONDS));
+		for (List<Integer> run : runs) {
+			for (int i = 0; i < jobsPerKey; i++) {
+				assertEquals(Integer.valueOf(i), run.get(i));
+			}
+		}
+		// the keys were spread over the shards
+		assertTrue(threads.size() > 1);
+	}
+
+	@Test(timeout = 30000)
+	public void highLaneRunsBeforeNormalLane() throws InterruptedException {
+		executor = new BackgroundJobExecutor("priority-test", 1);
+		occupyShard("/a");
+		executor.submit("/a", record("n1"));
+		executor.submit("/b", record("n2"));
+		executor.submit("/b", record("h1"), BackgroundJobExecutor.Priority.HIGH);
+		executor.submit("/a", record("h2"), BackgroundJobExecutor.Priority.HIGH);
+		executor.submit("/a", record("n3"));
+		release.countDown();
+		awaitRan(5);
+		assertEquals(Arrays.asList("h1", "h2", "n1", "n2", "n3"), ran);
+	}
+
+	@Test(timeout = 30000)
+	public void highLaneIsNotBounded() throws InterruptedException {
+		executor = new BackgroundJobExecutor("high-test", 1);
+		executor.setCapacity(1, BackgroundJobExecutor.OverflowPolicy.BLOCK);
+		occupyShard("/a");
+		executor.submit("/a", record("n1"));
+		for (int i = 0; i < 5; i++) {
+			executor.submit("/a", record("h" + i), BackgroundJobExecutor.Priority.HIGH);
+		}
+		assertEquals(6, executor.getQueueDepth());
+		release.countDown();
+		awaitRan(6);
+		assertEquals("n1", ran.get(5));
+	}
+
+	@Test(timeout = 30000)
+	public void blockWaitsForRoom() throws InterruptedException {
+		executor = new BackgroundJobExecutor("block-test", 1);
+		executor.setCapacity(2, BackgroundJobExecutor.OverflowPolicy.BLOCK);
+		occupyShard("/a");
+		Runnable same = record("same");
+		executor.submit("/a", same);
+		executor.submit("/a", record("n1"));
+
+		// even an equal job waits
+		Thread submitter = submitInThread("/a", same);
+		awaitWaiting(submitter);
+		assertEquals(2, executor.getQueueDepth());
+		release.countDown();
+		submitter.join();
+		awaitRan(3);
+		assertEquals(Arrays.asList("same", "n1", "same"), ran);
+		assertEquals(0, executor.getCoalescedJobs());
+		assertEquals(0, executor.getOverCapacityJobs());
+	}
+
+	@Test(timeout = 30000)
+	public void blockNeverParksThreadsThatMustNotWait() throws InterruptedException {
+		executor = new BackgroundJobExecutor("never-block-test", 1);
+		executor.setCapacity(2, BackgroundJobExecutor.OverflowPolicy.BLOCK);
+		occupyShard("/a");
+		final Runnable same = record("same");
+		executor.submit("/a", same);
+		executor.submit("/a", record("n1"));
+
+		Thread eventThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				BackgroundJobExecutor.neverBlockCurrentThread();
+				// coalesced with the queued equal job
+				executor.submit("/a", same);
+				// nothing to coalesce with, queued over capacity
+				executor.submit("/a", record("n2"));
+			}
+		});
+		eventThread.start();
+		eventThread.join(5000);
+		assertEquals(Thread.State.TERMINATED, eventThread.getState());
+		assertEquals(1, executor.getCoalescedJobs());
+		assertEquals(1, executor.getOverCapacityJobs());
+		assertEquals(3, executor.getQueueDepth());
+
+		release.countDown();
+		awaitRan(3);
+		assertEquals(Arrays.asList("same", "n1", "n2"), ran);
+	}
+
+	@Test(timeout = 30000)
+	public void shardThreadQueuesOverCapacityOnItsOwnShard() throws InterruptedException {
+		executor = new BackgroundJobExecutor("shard-test", 1);
+		executor.setCapacity(1, BackgroundJobExecutor.OverflowPolicy.BLOCK);
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.submit("/a", new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				await(release);
+				// the lane is full and only this thread could make room
+				executor.submit("/a", record("from-shard"));
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.submit("/a", record("n1"));
+		release.countDown();
+		awaitRan(2);
+		assertEquals(Arrays.asList("n1", "from-shard"), ran);
+		assertEquals(1, executor.getOverCapacityJobs());
+	}
+
+	@Test(timeout = 30000)
+	public void coalesceDropsEqualJobsAndBlocksOthers() throws InterruptedException {
+		executor = new BackgroundJobExecutor("coalesce-test", 1);
+		executor.setCapacity(2, BackgroundJobExecutor.OverflowPolicy.COALESCE);
+		occupyShard("/a");
+		Runnable same = record("same");
+		executor.submit("/a", same);
+		executor.submit("/a", record("n1"));
+
+		executor.submit("/a", same);
+		assertEquals(1, executor.getCoalescedJobs());
+		// the same job under another key is other work
+		Thread submitter = submitInThread("/b", same);
+		awaitWaiting(submitter);
+		assertEquals(2, executor.getQueueDepth());
+
+		release.countDown();
+		submitter.join();
+		awaitRan(3);
+		assertEquals(Arrays.asList("same", "n1", "same"), ran);
+		assertEquals(1, executor.getCoalescedJobs());
+	}
+
+	@Test(timeout = 30000)
+	public void dropOldestPerPathRequeuesEqualJobAtTail() throws InterruptedException {
+		executor = new BackgroundJobExecutor("drop-test", 1);
+		executor.setCapacity(2, BackgroundJobExecutor.OverflowPolicy.DROP_OLDEST_PER_PATH);
+		occupyShard("/a");
+		Runnable same = record("same");
+		executor.submit("/a", same);
+		executor.submit("/a", record("n1"));
+
+		executor.submit("/a", same);
+		assertEquals(1, executor.getDroppedJobs());
+		assertEquals(2, executor.getQueueDepth());
+		Thread submitter = submitInThread("/a", record("n2"));
+		awaitWaiting(submitter);
+
+		release.countDown();
+		submitter.join();
+		awaitRan(3);
+		assertEquals(Arrays.asList("n1", "same", "n2"), ran);
+		assertEquals(1, executor.getDroppedJobs());
+	}
+
+	/**
+	 * Keeps the shard of {@code key} busy until {@link #release} is counted down.
+	 */
+	private void occupyShard(String key) throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.submit(key, new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				await(release);
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	private Runnable record(final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				ran.add(name);
+			}
+		};
+	}
+
+	private Thread submitInThread(final String key, final Runnable job) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				executor.submit(key, job);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private void awaitRan(int count) throws InterruptedException {
+		while (ran.size() < count) {
+			Thread.sleep(5);
+		}
+		// nothing else runs afterwards
+		Thread.sleep(50);
+		assertEquals(count, ran.size());
+	}
+
+	private static void awaitWaiting(Thread thread) throws InterruptedException {
+		while (thread.getState() != Thread.State.WAITING) {
+			assertTrue(thread.isAlive());
+			Thread.sleep(5);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
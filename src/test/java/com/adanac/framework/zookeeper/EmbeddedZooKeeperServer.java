@@ -0,0 +1,60 @@
+package com.adanac.framework.zookeeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * A standalone zookeeper server running in the test process on a free local port, with its data in
+ * a temporary directory removed on shutdown.
+ * @author adanac
+ * @version 1.0
+ */
+class EmbeddedZooKeeperServer {
+	private static final int TICK_TIME = 2000;
+
+	private final File dataDir;
+	private final ZooKeeperServer server;
+	private final NIOServerCnxnFactory connectionFactory;
+
+	EmbeddedZooKeeperServer() throws IOException, InterruptedException {
+		dataDir = File.createTempFile("zk-test", "");
+		if (!dataDir.delete() || !dataDir.mkdirs()) {
+			throw new IOException("Failed to create data directory " + dataDir);
+		}
+		server = new ZooKeeperServer(dataDir, dataDir, TICK_TIME);
+		connectionFactory = new NIOServerCnxnFactory();
+		connectionFactory.configure(new InetSocketAddress("127.0.0.1", 0), 1000);
+		connectionFactory.startup(server);
+	}
+
+	String getConnectString() {
+		return "127.0.0.1:" + connectionFactory.getLocalPort();
+	}
+
+	/**
+	 * @return number of watches the server holds for all sessions
+	 */
+	int getWatchCount() {
+		return server.getZKDatabase().getDataTree().getWatchCount();
+	}
+
+	void shutdown() {
+		connectionFactory.shutdown();
+		server.shutdown();
+		delete(dataDir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
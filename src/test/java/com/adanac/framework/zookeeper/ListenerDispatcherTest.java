@@ -0,0 +1,211 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the ordering and conflation of {@link ListenerDispatcher} channels, running the dispatched
+ * tasks by hand.
+ * @author adanac
+ * @version 1.0
+ */
+public class ListenerDispatcherTest {
+	private ManualExecutor executor;
+	private ListenerDispatcher dispatcher;
+
+	@Before
+	public void setUp() {
+		executor = new ManualExecutor();
+		dispatcher = new ListenerDispatcher(executor);
+	}
+
+	@Test
+	public void deliversEachChannelInOrder() {
+		ListenerDispatcher.Channel<String> first = dispatcher.newChannel(false);
+		ListenerDispatcher.Channel<String> second = dispatcher.newChannel(false);
+		Recorder listener = new Recorder();
+		first.dispatch(listener, null, "a1");
+		first.dispatch(listener, "a1", "a2");
+		second.dispatch(listener, null, "b1");
+		first.dispatch(listener, "a2", "a3");
+		// one task per channel, however many events it holds
+		assertEquals(2, executor.size());
+
+		// channels don't wait for each other
+		executor.runLast();
+		assertEquals(Arrays.asList("null>b1"), listener.events);
+		executor.runAll();
+		assertEquals(Arrays.asList("null>b1", "null>a1", "a1>a2", "a2>a3"), listener.events);
+		assertEquals(4, dispatcher.getDispatchedCount());
+		assertEquals(0, dispatcher.getConflatedCount());
+	}
+
+	@Test
+	public void eventsDispatchedDuringDeliveryFollowInOrder() {
+		final ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(false);
+		final Recorder listener = new Recorder() {
+			@Override
+			public void dataChanged(String oldData, String newData) {
+				super.dataChanged(oldData, newData);
+				if ("1".equals(newData)) {
+					channel.dispatch(this, "1", "2");
+				}
+			}
+		};
+		channel.dispatch(listener, null, "1");
+		executor.runAll();
+		assertEquals(Arrays.asList("null>1", "1>2"), listener.events);
+		assertEquals(0, executor.size());
+
+		// the channel is scheduled again once drained
+		channel.dispatch(listener, "2", "3");
+		assertEquals(1, executor.size());
+		executor.runAll();
+		assertEquals("2>3", listener.events.get(2));
+	}
+
+	@Test
+	public void conflatingChannelDeliversLatestValue() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(true);
+		Recorder listener = new Recorder();
+		channel.dispatch(listener, "v0", "v1");
+		channel.dispatch(listener, "v1", "v2");
+		channel.dispatch(listener, "v2", "v3");
+		executor.runAll();
+		assertEquals(Arrays.asList("v0>v3"), listener.events);
+		assertEquals(2, dispatcher.getConflatedCount());
+	}
+
+	@Test
+	public void conflatingChannelDropsChangesThatCancelOut() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(true);
+		Recorder listener = new Recorder();
+		channel.dispatch(listener, "v0", "v1");
+		channel.dispatch(listener, "v1", "v0");
+		executor.runAll();
+		assertTrue(listener.events.isEmpty());
+
+		// a later change is delivered as usual
+		channel.dispatch(listener, "v0", "v2");
+		executor.runAll();
+		assertEquals(Arrays.asList("v0>v2"), listener.events);
+	}
+
+	@Test
+	public void conflationOnlyMergesTheSameListener() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(true);
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		channel.dispatch(first, "v0", "v1");
+		channel.dispatch(second, "v0", "v1");
+		channel.dispatch(first, "v1", "v2");
+		executor.runAll();
+		assertEquals(Arrays.asList("v0>v1", "v1>v2"), first.events);
+		assertEquals(Arrays.asList("v0>v1"), second.events);
+	}
+
+	@Test
+	public void conflationCanBeTurnedOff() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(true);
+		channel.setConflate(false);
+		Recorder listener = new Recorder();
+		channel.dispatch(listener, "v0", "v1");
+		channel.dispatch(listener, "v1", "v0");
+		executor.runAll();
+		assertEquals(Arrays.asList("v0>v1", "v1>v0"), listener.events);
+	}
+
+	@Test
+	public void listenerFailureDoesNotStopChannel() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(false);
+		final Recorder listener = new Recorder() {
+			@Override
+			public void dataChanged(String oldData, String newData) {
+				super.dataChanged(oldData, newData);
+				if ("bad".equals(newData)) {
+					throw new IllegalStateException();
+				}
+			}
+		};
+		channel.dispatch(listener, null, "bad");
+		channel.dispatch(listener, "bad", "good");
+		executor.runAll();
+		assertEquals(Arrays.asList("null>bad", "bad>good"), listener.events);
+	}
+
+	@Test
+	public void rejectedEventsAreDroppedAndChannelRecovers() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(false);
+		Recorder listener = new Recorder();
+		executor.rejecting = true;
+		channel.dispatch(listener, null, "lost");
+		executor.rejecting = false;
+		channel.dispatch(listener, "lost", "v1");
+		executor.runAll();
+		assertEquals(Arrays.asList("lost>v1"), listener.events);
+	}
+
+	@Test
+	public void replacedExecutorRunsLaterEvents() {
+		ListenerDispatcher.Channel<String> channel = dispatcher.newChannel(false);
+		Recorder listener = new Recorder();
+		ManualExecutor replacement = new ManualExecutor();
+		dispatcher.setExecutor(replacement);
+		channel.dispatch(listener, null, "v1");
+		assertEquals(0, executor.size());
+		replacement.runAll();
+		assertEquals(Arrays.asList("null>v1"), listener.events);
+	}
+
+	/**
+	 * Queues tasks until the test runs them.
+	 */
+	static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		boolean rejecting = false;
+
+		@Override
+		public void execute(Runnable task) {
+			if (rejecting) {
+				throw new RejectedExecutionException();
+			}
+			tasks.add(task);
+		}
+
+		int size() {
+			return tasks.size();
+		}
+
+		void runLast() {
+			tasks.removeLast().run();
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.removeFirst().run();
+			}
+		}
+	}
+
+	/**
+	 * Records every change as "old>new".
+	 */
+	static class Recorder implements DataListener<String> {
+		final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void dataChanged(String oldData, String newData) {
+			events.add(oldData + ">" + newData);
+		}
+	}
+}
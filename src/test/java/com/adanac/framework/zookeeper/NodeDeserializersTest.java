@@ -0,0 +1,159 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Checks the built-in {@link NodeDeserializers}, read both from arrays and from buffer views.
+ * @author adanac
+ * @version 1.0
+ */
+public class NodeDeserializersTest {
+
+	@Test
+	public void parsesLongs() {
+		ByteBufferNodeDeserializer<Long> longs = NodeDeserializers.longValue();
+		assertEquals(Long.valueOf(42), longs.deserialize(bytes("42")));
+		assertEquals(Long.valueOf(42), longs.deserialize(bytes("+42")));
+		assertEquals(Long.valueOf(-42), longs.deserialize(bytes("-42")));
+		assertEquals(Long.valueOf(0), longs.deserialize(bytes("-0")));
+		assertEquals(Long.valueOf(7), longs.deserialize(bytes(" \t7\r\n")));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), longs.deserialize(bytes("9223372036854775807")));
+		assertEquals(Long.valueOf(Long.MIN_VALUE), longs.deserialize(bytes("-9223372036854775808")));
+		assertNull(longs.deserialize(bytes("")));
+		assertNull(longs.deserialize(bytes("  ")));
+		assertNull(longs.deserialize((byte[]) null));
+	}
+
+	@Test
+	public void rejectsInvalidLongs() {
+		String[] invalid = { "9223372036854775808", "-9223372036854775809", "99999999999999999999", "-", "+",
+				"1 2", "12a", "0x10", "1.5", "--1" };
+		for (String data : invalid) {
+			try {
+				NodeDeserializers.longValue().deserialize(bytes(data));
+				fail("parsed " + data);
+			} catch (NumberFormatException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void decodesUtf8() {
+		ByteBufferNodeDeserializer<String> strings = NodeDeserializers.utf8String();
+		assertEquals("plain", strings.deserialize(bytes("plain")));
+		assertEquals("", strings.deserialize(bytes("")));
+		assertNull(strings.deserialize((byte[]) null));
+		String multiByte = "na\u00efve \u20ac \ud83d\ude00";
+		assertEquals(multiByte, strings.deserialize(bytes(multiByte)));
+	}
+
+	@Test
+	public void replacesInvalidUtf8() {
+		// a lone continuation byte and a truncated two byte sequence
+		byte[] data = { 'a', (byte) 0x80, 'b', (byte) 0xc3 };
+		assertEquals("a\ufffdb\ufffd", NodeDeserializers.utf8String().deserialize(data));
+	}
+
+	@Test
+	public void parsesKeyValueMaps() {
+		Map<String, String> expected = new LinkedHashMap<String, String>();
+		expected.put("name", "a \"quoted\" \\ /\b\f\n\r\t\u00e9");
+		expected.put("count", "12");
+		expected.put("enabled", "true");
+		expected.put("missing", null);
+		expected.put("\u20ac", "\u20ac");
+		Map<String, String> map = NodeDeserializers.keyValueMap().deserialize(bytes(" {\n\t\"name\" : "
+				+ "\"a \\\"quoted\\\" \\\\ \\/\\b\\f\\n\\r\\t\\u00e9\" ,\r\n \"count\":12, \"enabled\":true ,"
+				+ "\"missing\": null, \"\u20ac\":\"\\u20AC\" } \n"));
+		assertEquals(expected, map);
+		assertEquals(Arrays.asList(expected.keySet().toArray()), Arrays.asList(map.keySet().toArray()));
+		assertEquals(0, NodeDeserializers.keyValueMap().deserialize(bytes(" { } ")).size());
+	}
+
+	@Test
+	public void rejectsInvalidKeyValueMaps() {
+		String[] invalid = { "", "[]", "{", "{\"a\":1", "{\"a\":1,}", "{\"a\" 1}", "{\"a\":}", "{\"a\":{}}",
+				"{\"a\":[1]}", "{\"a\":\"\\x\"}", "{\"a\":\"\\u12\"}", "{\"a\":\"\\u12zz\"}", "{\"a\":\"b}",
+				"{} x", "{a:1}" };
+		for (String data : invalid) {
+			try {
+				NodeDeserializers.keyValueMap().deserialize(bytes(data));
+				fail("parsed " + data);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void loadsProperties() {
+		Properties properties = NodeDeserializers.properties().deserialize(bytes("a=1\n# comment\nb = two\n"));
+		assertEquals(2, properties.size());
+		assertEquals("1", properties.getProperty("a"));
+		assertEquals("two", properties.getProperty("b"));
+	}
+
+	@Test
+	public void readsBetweenPositionAndLimit() {
+		assertEquals(Long.valueOf(-15), NodeDeserializers.longValue().deserialize(window("xx -15 yy", 2, 7)));
+		assertEquals("\u00e9t\u00e9", NodeDeserializers.utf8String().deserialize(window("\u20ac\u00e9t\u00e9!", 3, 8)));
+		assertEquals("1", NodeDeserializers.keyValueMap().deserialize(window("junk{\"a\":1}junk", 4, 11)).get("a"));
+		assertEquals("v", NodeDeserializers.properties().deserialize(window("##k=v\n##", 2, 6)).getProperty("k"));
+	}
+
+	@Test
+	public void readsReadOnlyViewsWithoutMovingThem() {
+		ByteBuffer buffer = window("{\"k\":\"\\u00e9\"} ", 0, 14).asReadOnlyBuffer();
+		assertEquals("\u00e9", NodeDeserializers.keyValueMap().deserialize(buffer).get("k"));
+		assertEquals(0, buffer.position());
+		assertEquals(14, buffer.limit());
+
+		ByteBuffer text = window("--\u00e9--", 2, 4).asReadOnlyBuffer();
+		assertEquals("\u00e9", NodeDeserializers.utf8String().deserialize(text));
+		assertEquals(2, text.position());
+		assertEquals(4, text.limit());
+
+		ByteBuffer properties = window("k=v", 0, 3).asReadOnlyBuffer();
+		NodeDeserializers.properties().deserialize(properties);
+		assertEquals(0, properties.position());
+	}
+
+	@Test
+	public void errorPositionIsRelativeToView() {
+		try {
+			NodeDeserializers.keyValueMap().deserialize(window("xxxx{\"a\" 1}", 4, 11));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid node data at byte 6: expected ':'", e.getMessage());
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return a buffer over the UTF-8 bytes of {@code s} positioned at {@code position} and limited
+	 *         to {@code limit}
+	 */
+	private static ByteBuffer window(String s, int position, int limit) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes(s));
+		buffer.limit(limit);
+		buffer.position(position);
+		return buffer;
+	}
+}
@@ -0,0 +1,129 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link NodeSnapshotStore} reloads what it persisted, drops a torn tail and
+ * compacts its log.
+ * @author adanac
+ * @version 1.0
+ */
+public class NodeSnapshotStoreTest {
+	private File file;
+	private NodeSnapshotStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("snapshots", ".log");
+		file.delete();
+		store = NodeSnapshotStore.open(file);
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void reloadsPutsAndRemoves() throws IOException {
+		store.put("/a", 1, bytes("a1"));
+		store.put("/b", 2, bytes("b2"));
+		store.put("/a", 3, bytes("a3"));
+		store.put("/c", 4, null);
+		store.remove("/b");
+
+		reopen();
+		assertEquals(3, store.get("/a").getMzxid());
+		assertArrayEquals(bytes("a3"), store.get("/a").getData());
+		assertNull(store.get("/b"));
+		assertEquals(4, store.get("/c").getMzxid());
+		assertNull(store.get("/c").getData());
+	}
+
+	@Test
+	public void truncatesTornTail() throws IOException {
+		store.put("/a", 1, bytes("a1"));
+		store.close();
+		long validLength = file.length();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+		try {
+			// a put cut in the middle of its data
+			out.writeByte(1);
+			out.writeUTF("/b");
+			out.writeLong(2);
+			out.writeInt(100);
+			out.write(bytes("partial"));
+		} finally {
+			out.close();
+		}
+
+		store = NodeSnapshotStore.open(file);
+		assertEquals(validLength, file.length());
+		assertArrayEquals(bytes("a1"), store.get("/a").getData());
+		assertNull(store.get("/b"));
+
+		// appends after the truncation are read back
+		store.put("/b", 3, bytes("b3"));
+		reopen();
+		assertArrayEquals(bytes("b3"), store.get("/b").getData());
+	}
+
+	@Test
+	public void truncatesNegativeDataLength() throws IOException {
+		store.put("/a", 1, bytes("a1"));
+		store.close();
+		long validLength = file.length();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+		try {
+			out.writeByte(1);
+			out.writeUTF("/b");
+			out.writeLong(2);
+			out.writeInt(-2);
+		} finally {
+			out.close();
+		}
+
+		store = NodeSnapshotStore.open(file);
+		assertEquals(validLength, file.length());
+		assertNull(store.get("/b"));
+		assertArrayEquals(bytes("a1"), store.get("/a").getData());
+	}
+
+	@Test
+	public void compactsOverwrittenRecords() throws IOException {
+		store.put("/other", 1, bytes("other"));
+		for (int i = 2; i < 5000; i++) {
+			store.put("/a", i, bytes("a" + i));
+		}
+		// a record of /a takes 22 bytes, compaction keeps the log within about 1024 of them
+		assertTrue(file.length() < 1100 * 22);
+
+		reopen();
+		assertEquals(4999, store.get("/a").getMzxid());
+		assertArrayEquals(bytes("a4999"), store.get("/a").getData());
+		assertArrayEquals(bytes("other"), store.get("/other").getData());
+	}
+
+	private void reopen() throws IOException {
+		store.close();
+		store = NodeSnapshotStore.open(file);
+	}
+
+	private static byte[] bytes(String s) throws IOException {
+		return s.getBytes("UTF-8");
+	}
+}
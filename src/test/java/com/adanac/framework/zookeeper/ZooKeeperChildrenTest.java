@@ -0,0 +1,103 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link ZooKeeperChildren} only reports itself loaded once the data of every child
+ * has been applied.
+ * @author adanac
+ * @version 1.0
+ */
+public class ZooKeeperChildrenTest {
+	private static final String PARENT = "/children-test";
+	private static final int CHILDREN = 200;
+
+	private EmbeddedZooKeeperServer server;
+	private ZooKeeperClient client;
+	private ZooKeeperChildren<String> children;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new EmbeddedZooKeeperServer();
+		client = new ZooKeeperClient(5000, server.getConnectString());
+		client.get(10, TimeUnit.SECONDS).create(PARENT, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		for (int i = 0; i < CHILDREN; i++) {
+			client.get().create(PARENT + "/c" + i, ("v" + i).getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+					CreateMode.PERSISTENT);
+		}
+		children = ZooKeeperChildren.create(client, PARENT, NodeDeserializers.utf8String());
+	}
+
+	@After
+	public void tearDown() {
+		children.destroy();
+		client.destroy();
+		server.shutdown();
+	}
+
+	@Test
+	public void syncReturnsOnceEveryChildIsLoaded() {
+		children.sync(true);
+		Map<String, String> data = children.getData();
+		assertEquals(CHILDREN, data.size());
+		for (int i = 0; i < CHILDREN; i++) {
+			assertEquals("v" + i, data.get("c" + i));
+		}
+	}
+
+	@Test
+	public void singleSyncAttemptReturnsOnceEveryChildIsLoaded() {
+		children.sync(false);
+		assertEquals(CHILDREN, children.getData().size());
+	}
+
+	@Test
+	public void monitorFirstDeliversEveryChild() throws Exception {
+		final BlockingQueue<Map<String, String>> events = new LinkedBlockingQueue<Map<String, String>>();
+		children.monitor(null, new DataListener<Map<String, String>>() {
+			@Override
+			public void dataChanged(Map<String, String> oldData, Map<String, String> newData) {
+				events.add(newData);
+			}
+		});
+		Map<String, String> first = events.poll(10, TimeUnit.SECONDS);
+		assertEquals(CHILDREN, first.size());
+
+		client.get().setData(PARENT + "/c0", "changed".getBytes("UTF-8"), -1);
+		Map<String, String> next = events.poll(10, TimeUnit.SECONDS);
+		assertEquals(CHILDREN, next.size());
+		assertEquals("changed", next.get("c0"));
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void resumedSessionKeepsWatchingChildren() throws Exception {
+		final BlockingQueue<Map<String, String>> events = new LinkedBlockingQueue<Map<String, String>>();
+		children.monitor(null, new DataListener<Map<String, String>>() {
+			@Override
+			public void dataChanged(Map<String, String> oldData, Map<String, String> newData) {
+				events.add(newData);
+			}
+		});
+		assertEquals(CHILDREN, events.poll(10, TimeUnit.SECONDS).size());
+
+		client.detach();
+		client.get(10, TimeUnit.SECONDS).setData(PARENT + "/c1", "resumed".getBytes("UTF-8"), -1);
+		Map<String, String> next = events.poll(10, TimeUnit.SECONDS);
+		assertEquals(CHILDREN, next.size());
+		assertEquals("resumed", next.get("c1"));
+		assertEquals("v2", next.get("c2"));
+	}
+}
@@ -0,0 +1,95 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that concurrent callers of {@link ZooKeeperClient#getInstance} share one client, and so
+ * one set of threads, per distinct servers, credentials and session timeout. Clients don't connect
+ * until first used, so no server is needed.
+ * @author adanac
+ * @version 1.0
+ */
+public class ZooKeeperClientGetInstanceTest {
+	private static final String BACKGROUND_THREAD_PREFIX = "ZookeeperClient-backgroundProcessor-";
+	private static final int CALLERS_PER_KEY = 16;
+
+	private static final String[] SERVERS = { "127.0.0.1:21810", "127.0.0.1:21811", "127.0.0.1:21810" };
+	private static final int[] SESSION_TIMEOUTS = { 5000, 5000, 6000 };
+
+	@After
+	public void tearDown() {
+		ZooKeeperClient.shutdown();
+	}
+
+	@Test
+	public void concurrentGetInstanceCreatesOneClientPerKey() throws Exception {
+		Set<Thread> threadsBefore = threads(BACKGROUND_THREAD_PREFIX);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService callers = Executors.newFixedThreadPool(SERVERS.length * CALLERS_PER_KEY);
+		List<List<Future<ZooKeeperClient>>> results = new ArrayList<List<Future<ZooKeeperClient>>>();
+		try {
+			for (int key = 0; key < SERVERS.length; key++) {
+				final String servers = SERVERS[key];
+				final int sessionTimeout = SESSION_TIMEOUTS[key];
+				List<Future<ZooKeeperClient>> keyResults = new ArrayList<Future<ZooKeeperClient>>();
+				for (int i = 0; i < CALLERS_PER_KEY; i++) {
+					keyResults.add(callers.submit(new Callable<ZooKeeperClient>() {
+						@Override
+						public ZooKeeperClient call() throws Exception {
+							start.await();
+							return ZooKeeperClient.getInstance(sessionTimeout, ZooKeeperClient.Credentials.NONE,
+									servers);
+						}
+					}));
+				}
+				results.add(keyResults);
+			}
+			start.countDown();
+
+			int shards = 0;
+			for (List<Future<ZooKeeperClient>> keyResults : results) {
+				ZooKeeperClient client = keyResults.get(0).get(10, TimeUnit.SECONDS);
+				for (Future<ZooKeeperClient> result : keyResults) {
+					assertSame(client, result.get(10, TimeUnit.SECONDS));
+				}
+				shards = client.getBackgroundExecutor().getShardCount();
+			}
+			for (int i = 0; i < results.size(); i++) {
+				for (int j = i + 1; j < results.size(); j++) {
+					assertNotSame(results.get(i).get(0).get(), results.get(j).get(0).get());
+				}
+			}
+			Set<Thread> started = threads(BACKGROUND_THREAD_PREFIX);
+			started.removeAll(threadsBefore);
+			assertEquals(results.size() * shards, started.size());
+		} finally {
+			callers.shutdownNow();
+		}
+	}
+
+	private static Set<Thread> threads(String prefix) {
+		Set<Thread> threads = new HashSet<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+				threads.add(thread);
+			}
+		}
+		return threads;
+	}
+}
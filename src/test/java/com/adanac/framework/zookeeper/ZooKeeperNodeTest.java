@@ -0,0 +1,157 @@
+package com.adanac.framework.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the references of one node share its watch, that the watch goes away with the last
+ * reference, and how the listeners of the references are notified.
+ * @author adanac
+ * @version 1.0
+ */
+public class ZooKeeperNodeTest {
+	private static final String PATH = "/node-test";
+
+	private EmbeddedZooKeeperServer server;
+	private ZooKeeperClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new EmbeddedZooKeeperServer();
+		client = new ZooKeeperClient(5000, server.getConnectString());
+		client.get(10, TimeUnit.SECONDS).create(PATH, "v0".getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+				CreateMode.PERSISTENT);
+	}
+
+	@After
+	public void tearDown() {
+		client.destroy();
+		server.shutdown();
+	}
+
+	@Test
+	public void referencesOfOneNodeShareOneWatch() {
+		ZooKeeperNode<String> first = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		ZooKeeperNode<String> second = ZooKeeperNode.create(client, PATH + "/", NodeDeserializers.utf8String());
+		assertNotSame(first, second);
+		first.sync(true);
+		second.sync(true);
+
+		assertEquals(1, client.getNodeCount());
+		assertEquals(1, server.getWatchCount());
+		assertEquals("v0", second.getData());
+		first.release();
+		second.release();
+	}
+
+	@Test
+	public void releasingLastReferenceDropsWatch() throws Exception {
+		ZooKeeperNode<String> first = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		ZooKeeperNode<String> second = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		first.sync(true);
+
+		first.release();
+		assertEquals(1, client.getNodeCount());
+		client.get().setData(PATH, "v1".getBytes("UTF-8"), -1);
+		awaitData(second, "v1");
+		assertEquals(1, server.getWatchCount());
+
+		second.release();
+		assertEquals(0, client.getNodeCount());
+		// the pending watch fires once more and isn't armed again
+		client.get().setData(PATH, "v2".getBytes("UTF-8"), -1);
+		awaitWatchCount(0);
+	}
+
+	@Test
+	public void everyListenerIsNotifiedOfOneChange() {
+		ListenerDispatcherTest.ManualExecutor executor = new ListenerDispatcherTest.ManualExecutor();
+		client.setListenerExecutor(executor);
+		ZooKeeperNode<String> first = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		ZooKeeperNode<String> second = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		SharedNode<String> shared = client.acquireNode(PATH, NodeDeserializers.utf8String(), null);
+		ListenerDispatcherTest.Recorder fast = new ListenerDispatcherTest.Recorder();
+		ListenerDispatcherTest.Recorder slow = new ListenerDispatcherTest.Recorder();
+		first.addDataListener(fast);
+		second.setConflateEvents(true);
+		second.addDataListener(slow);
+
+		shared.updateData("v1");
+		shared.updateData("v2");
+		shared.updateData("v3");
+		executor.runAll();
+		assertEquals(Arrays.asList("null>v1", "v1>v2", "v2>v3"), fast.events);
+		// the conflating reference only sees the latest value
+		assertEquals(Arrays.asList("null>v3"), slow.events);
+
+		shared.release();
+		first.release();
+		second.release();
+	}
+
+	@Test
+	public void listenersAddedAndRemovedDuringDispatch() {
+		ListenerDispatcherTest.ManualExecutor executor = new ListenerDispatcherTest.ManualExecutor();
+		client.setListenerExecutor(executor);
+		final ZooKeeperNode<String> node = ZooKeeperNode.create(client, PATH, NodeDeserializers.utf8String());
+		SharedNode<String> shared = client.acquireNode(PATH, NodeDeserializers.utf8String(), null);
+		final ListenerDispatcherTest.Recorder added = new ListenerDispatcherTest.Recorder();
+		final ListenerDispatcherTest.Recorder removed = new ListenerDispatcherTest.Recorder();
+		ListenerDispatcherTest.Recorder changer = new ListenerDispatcherTest.Recorder() {
+			@Override
+			public void dataChanged(String oldData, String newData) {
+				super.dataChanged(oldData, newData);
+				if ("v1".equals(newData)) {
+					node.addDataListener(added);
+					node.removeDataListener(removed);
+				}
+			}
+		};
+		node.addDataListener(changer);
+		node.addDataListener(removed);
+
+		shared.updateData("v1");
+		shared.updateData("v2");
+		// the changer runs first, while the events of the removed listener are still queued
+		executor.runAll();
+		assertEquals(Arrays.asList("null>v1", "v1>v2"), changer.events);
+		// added after v2 had been dispatched
+		assertTrue(added.events.isEmpty());
+		assertTrue(removed.events.isEmpty());
+		assertEquals(Arrays.asList(changer, added), node.getDataListeners());
+
+		shared.updateData("v3");
+		executor.runAll();
+		assertEquals(Arrays.asList("v2>v3"), added.events);
+		assertTrue(removed.events.isEmpty());
+
+		shared.release();
+		node.release();
+	}
+
+	private static void awaitData(ZooKeeperNode<String> node, String expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!expected.equals(node.getData()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, node.getData());
+	}
+
+	private void awaitWatchCount(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (server.getWatchCount() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getWatchCount());
+	}
+}